@@ -0,0 +1,149 @@
+package com.primed.sde;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress reporting for the export commands. Worker threads only bump
+ * {@link LongAdder} counters, so recording a finished file never takes a lock.
+ * A single live line (files done/total, MB/s, ETA) is redrawn on stderr at most
+ * once per {@link #RENDER_INTERVAL_MS}, whichever thread gets there first wins
+ * the right to draw it.
+ *
+ * Per-file messages go through {@link #debug(String)} and are only printed
+ * when the level is {@link Level#DEBUG}. {@link Level#QUIET} suppresses the
+ * live line as well. Everything goes to stderr unless another stream is set.
+ */
+public class Progress {
+
+	public enum Level {
+		QUIET, NORMAL, DEBUG
+	};
+
+	private static final long RENDER_INTERVAL_MS = 250;
+	private static final double MB = 1024.0 * 1024.0;
+
+	private static volatile Level level = Level.NORMAL;
+	private static volatile PrintStream output = System.err;
+
+	private final String label;
+	private final PrintStream out;
+	private final LongAdder filesDone = new LongAdder();
+	private final LongAdder bytesDone = new LongAdder();
+	private final AtomicLong lastRender = new AtomicLong();
+	private final long startNanos;
+	private final long totalFiles;
+
+	/**
+	 * @param label shown at the start of the live line, e.g. "export r1234"
+	 * @param totalFiles the expected number of files, or 0 if unknown
+	 */
+	public Progress(String label, long totalFiles) {
+		this(label, totalFiles, output);
+	}
+
+	/**
+	 * @param label shown at the start of the live line, e.g. "export r1234"
+	 * @param totalFiles the expected number of files, or 0 if unknown
+	 * @param out where the live line is drawn
+	 */
+	public Progress(String label, long totalFiles, PrintStream out) {
+		this.label = label;
+		this.out = out;
+		this.totalFiles = totalFiles;
+		this.startNanos = System.nanoTime();
+	}
+
+	public static void setLevel(Level newLevel) {
+		level = newLevel;
+	}
+
+	/**
+	 * @param stream where debug messages and new live lines go, stderr by default
+	 */
+	public static void setOutput(PrintStream stream) {
+		output = stream;
+	}
+
+	/**
+	 * Prints a per-file message, only at debug level.
+	 * @param message
+	 */
+	public static void debug(String message) {
+		if (level == Level.DEBUG) {
+			output.println(message);
+		}
+	}
+
+	/**
+	 * Records one finished file. Safe to call from any number of threads.
+	 *
+	 * @param bytes the size of the file written
+	 */
+	public void fileDone(long bytes) {
+		filesDone.increment();
+		bytesDone.add(bytes);
+		if (level == Level.NORMAL) {
+			long now = System.currentTimeMillis();
+			long last = lastRender.get();
+			if (now - last >= RENDER_INTERVAL_MS && lastRender.compareAndSet(last, now)) {
+				render(false);
+			}
+		}
+	}
+
+	public long getFilesDone() {
+		return filesDone.sum();
+	}
+
+	public long getBytesDone() {
+		return bytesDone.sum();
+	}
+
+	/**
+	 * Draws the final line and moves to the next one.
+	 */
+	public void finish() {
+		if (level != Level.QUIET) {
+			render(true);
+		}
+	}
+
+	private synchronized void render(boolean last) {
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		String line = format(label, filesDone.sum(), totalFiles, bytesDone.sum(), seconds, last);
+		if (last) {
+			out.println(line);
+		} else {
+			out.print(line);
+			out.flush();
+		}
+	}
+
+	/**
+	 * The live line: the rate is averaged over the whole run, and the ETA
+	 * assumes the remaining files take as long as the ones done so far.
+	 *
+	 * @param last true for the final line, which shows the elapsed time instead of the ETA
+	 */
+	static String format(String label, long files, long total, long bytes, double seconds, boolean last) {
+		double rate = seconds > 0 ? bytes / MB / seconds : 0;
+
+		StringBuilder sb = new StringBuilder();
+		sb.append('\r').append(label).append(": ").append(files);
+		if (total > 0) {
+			sb.append('/').append(total);
+		}
+		sb.append(" files, ").append(String.format(Locale.US, "%.1f MB, %.2f MB/s", bytes / MB, rate));
+		if (last) {
+			sb.append(String.format(Locale.US, ", %.1fs", seconds));
+		} else if (total > 0 && files > 0 && files < total) {
+			long eta = Math.round(seconds / files * (total - files));
+			sb.append(", ETA ").append(eta / 60).append('m').append(String.format("%02d", eta % 60)).append('s');
+		}
+		sb.append("   ");
+		return sb.toString();
+	}
+}
@@ -5,6 +5,7 @@ import java.io.File;
 import org.tmatesoft.svn.core.SVNURL;
 import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
 import org.tmatesoft.svn.core.internal.io.dav.DAVRepositoryFactory;
+import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
 import org.tmatesoft.svn.core.internal.io.svn.SVNRepositoryFactoryImpl;
 import org.tmatesoft.svn.core.wc.ISVNOptions;
 import org.tmatesoft.svn.core.wc.SVNDiffClient;
@@ -15,7 +16,11 @@ import org.tmatesoft.svn.core.wc.SVNWCUtil;
 import com.primed.sde.command.Diff;
 import com.primed.sde.command.Export;
 import com.primed.sde.command.ExportAndZipRevision;
+import com.primed.sde.command.ExportWorkers;
+import com.primed.sde.command.PathFilter;
 import com.primed.sde.command.Revision;
+import com.primed.sde.command.StagingManager;
+import com.primed.sde.command.Watch;
 import com.primed.sde.command.Zip;
 import java.util.ArrayList;
 import org.apache.commons.cli.CommandLine;
@@ -41,6 +46,9 @@ import org.apache.commons.cli.Options;
  * 
  * Zip the new pack for transport via your mechanism ftp,ssh,xcopy...
  * zip <directory-to-zip>  
+ * 
+ * Package each new commit on a branch as it lands:
+ * watch [-u <branch-url>] [-s <seconds>] [-t <state-file>] [-r]
  *   
  * @author philip gloyne (philip.gloyne@gmail.com)
  * @since 25-JAN-2010
@@ -48,7 +56,7 @@ import org.apache.commons.cli.Options;
 public class SvnDiffExport {
 
     enum Command {
-        diff, export, revision, zip, export_zip, export_zips
+        diff, export, revision, zip, export_zip, export_zips, watch
     };
 
     public static void main(String[] fullArgs) throws Exception {
@@ -65,10 +73,26 @@ public class SvnDiffExport {
 
         options.addOption("1", "old", true, "the old (source) SVN URL on which to operate");
         options.addOption("2", "new", true, "the new (destination) SVN URL on which to operate");
+        options.addOption("q", "quiet", false, "no progress output");
+        options.addOption("d", "debug", false, "log every exported file");
+        options.addOption("s", "interval", true, "watch: seconds between polls, 0 to poll once (default 30)");
+        options.addOption("t", "state", true, "watch: file keeping the last packaged revision (default watch.state)");
+        options.addOption("r", "rolling", false, "watch: keep one export-rolling.zip with everything since the watch started, instead of a zip per revision");
+        options.addOption("I", "include", true, "comma separated globs of paths to export, added to export.include");
+        options.addOption("X", "exclude", true, "comma separated globs of paths never to export, added to export.exclude");
+        options.addOption("c", "connections", true, "maximum number of files fetched at the same time (default 1)");
+        options.addOption("V", "virtual-threads", false, "fetch on virtual threads (Java 21+), falls back to a fixed pool");
+        options.addOption("z", "zip-format", true, "standard, reproducible (sorted, fixed timestamps) or indexed (reproducible, ZIP64, entry index first)");
 
         CommandLineParser parser = new GnuParser();
         CommandLine cmd = parser.parse( options, fullArgs);
 
+        if (cmd.hasOption("d")) {
+            Progress.setLevel(Progress.Level.DEBUG);
+        } else if (cmd.hasOption("q")) {
+            Progress.setLevel(Progress.Level.QUIET);
+        }
+
         String propertiesFileName = cmd.getOptionValue("f", "svn.properties");
 
         System.err.println("Using config file: " + propertiesFileName);
@@ -77,11 +101,17 @@ public class SvnDiffExport {
         String svnUsername = properties.getSvnUsername();
         String svnPassword = properties.getSvnPassword();
         String svnDefaultUrl = properties.getSvnUrl();
+        PathFilter filter = PathFilter.parse(properties.getIncludes() + "," + cmd.getOptionValue("I", ""),
+                properties.getExcludes() + "," + cmd.getOptionValue("X", ""));
+        Zip.Format zipFormat = Zip.Format.parse(cmd.getOptionValue("z", properties.getZipFormat()));
+        int connections = cmd.hasOption("c") ? Integer.parseInt(cmd.getOptionValue("c")) : properties.getConnections();
+        ExportWorkers workers = new ExportWorkers(connections, cmd.hasOption("V") || properties.getVirtualThreads());
 
         ISVNOptions svnOptions = SVNWCUtil.createDefaultOptions(true);
         BasicAuthenticationManager bam = new BasicAuthenticationManager(svnUsername, svnPassword);
         DAVRepositoryFactory.setup();
         SVNRepositoryFactoryImpl.setup();
+        FSRepositoryFactory.setup();
 
 //        System.err.println("arg length: " + args.length);
 //        for (String arg : args) {
@@ -96,7 +126,7 @@ public class SvnDiffExport {
         if (args.length == 0) {
             HelpFormatter formatter = new HelpFormatter();
             formatter.printHelp( "SvnDiffExport <cmd> <options>", options );
-            System.out.println("Valid commands: diff, export, revision, zip, export_zip");
+            System.out.println("Valid commands: diff, export, revision, zip, export_zip, export_zips, watch");
 
         } else {
 
@@ -109,7 +139,7 @@ public class SvnDiffExport {
                     SVNURL oldBranch = SVNURL.parseURIEncoded(cmd.getOptionValue("1"));
                     SVNURL newBranch = SVNURL.parseURIEncoded(cmd.getOptionValue("2"));
                     String diff = cmd.getOptionValue("o");
-                    new Diff(new SVNDiffClient(bam, svnOptions), oldBranch, newBranch, diff).execute();
+                    new Diff(new SVNDiffClient(bam, svnOptions), oldBranch, newBranch, diff, filter).execute();
                     break;
 
                 case export:
@@ -121,7 +151,7 @@ public class SvnDiffExport {
                     String oldBranchURL = cmd.getOptionValue("1");
                     String newBranchURL = cmd.getOptionValue("2");
                     String exportTo = cmd.getOptionValue("o");
-                    new Export(new SVNUpdateClient(bam, svnOptions), diffFile, oldBranchURL, newBranchURL, exportTo).execute();
+                    new Export(new SVNUpdateClient(bam, svnOptions), bam, diffFile, oldBranchURL, newBranchURL, exportTo, filter, workers).execute();
                     break;
 
                 case revision:
@@ -137,7 +167,7 @@ public class SvnDiffExport {
                     if (!zipTarget.exists()) {
                         throw new RuntimeException("zip target dir/file: " + cmd.getOptionValue("o") + " not found.");
                     }
-                    new Zip(zipTarget).execute();
+                    new Zip(zipTarget, zipTarget.getName() + ".zip", filter, zipFormat).execute();
                     break;
 
                 case export_zips:
@@ -179,15 +209,26 @@ public class SvnDiffExport {
 
                     for (String rev: al) {
                         System.err.println("exporting revision " + rev);
-                        new ExportAndZipRevision(bam, svnOptions, srcBranch, rev, command == Command.export_zips ).execute();
+                        new ExportAndZipRevision(bam, svnOptions, srcBranch, rev, command == Command.export_zips, filter, zipFormat, workers).execute();
                     }
 
 
                     break;
 
+                case watch:
+                    System.out.println("watch..");
+                    SVNURL watchBranch = SVNURL.parseURIEncoded(cmd.getOptionValue("u", svnDefaultUrl));
+                    File stateFile = new File(cmd.getOptionValue("t", "watch.state"));
+                    long interval = Long.parseLong(cmd.getOptionValue("s", "30"));
+                    new Watch(bam, svnOptions, watchBranch, stateFile, interval, cmd.hasOption("r"), filter, zipFormat, workers).execute();
+                    break;
+
             }
         }
 
+        workers.shutdown();
+        StagingManager.awaitPending();
+
         Long end = System.currentTimeMillis();
         System.out.println("finished. time: " + ((end - start) / 1000) + " seconds.");
 
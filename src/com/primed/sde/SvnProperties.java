@@ -49,4 +49,44 @@ public class SvnProperties extends Properties {
         public String getSvnUrl() {
 		return getProperty("svn.url", "");
 	}
+
+	/**
+	 * Comma separated glob rules, see PathFilter. Defaults to none (everything).
+	 * @return the paths to export.
+	 */
+	public String getIncludes() {
+		return getProperty("export.include", "");
+	}
+
+	/**
+	 * Comma separated glob rules, e.g. test/,docs/,*.psd. Defaults to none.
+	 * @return the paths never to export or zip.
+	 */
+	public String getExcludes() {
+		return getProperty("export.exclude", "");
+	}
+
+	/**
+	 * standard, reproducible or indexed. Defaults to standard.
+	 * @return the zip format.
+	 */
+	public String getZipFormat() {
+		return getProperty("zip.format", "standard");
+	}
+
+	/**
+	 * Defaults to 1, one file at a time.
+	 * @return the maximum number of files fetched at the same time.
+	 */
+	public int getConnections() {
+		return Integer.parseInt(getProperty("export.connections", "1").trim());
+	}
+
+	/**
+	 * Defaults to false.
+	 * @return true to fetch on virtual threads when the JVM supports them.
+	 */
+	public boolean getVirtualThreads() {
+		return Boolean.parseBoolean(getProperty("export.virtual-threads", "false").trim());
+	}
 }
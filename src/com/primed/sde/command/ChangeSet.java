@@ -0,0 +1,440 @@
+package com.primed.sde.command;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Compact list of the changes found by a diff summarize. A change is kept as a
+ * status byte plus its URL with the branch prefix stripped, stored as UTF-8 in
+ * one packed byte arena, so a diff with millions of nodes costs a few bytes of
+ * overhead per entry instead of a full String each.
+ *
+ * Once the arena grows past the spill threshold it is moved to a temporary file
+ * and read back with positional reads through a small page cache, keeping the
+ * heap requirement small for very large diffs. The file is not memory mapped:
+ * a mapping can't be released on demand, and on Windows it would keep the file
+ * from being deleted. Iteration is always sorted by directory, then by name, so
+ * the files of one directory come out together.
+ *
+ * Call {@link #close()} when done to remove the spill file.
+ */
+public class ChangeSet implements Iterable<ChangeSet.Change>, Closeable {
+
+	/** Arena size (bytes) after which paths are spilled to a temporary file. */
+	public static final long DEFAULT_SPILL_THRESHOLD = Long.getLong("sde.changeset.spill", 64L * 1024 * 1024);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Set on entries whose URL did not start with the prefix and is stored whole. */
+	private static final int FULL_URL = 0x80;
+	/** Set on directory entries. */
+	private static final int DIRECTORY = 0x40;
+	/** The low bits of the operation letter, 'A' = 0x41 keeps 0x01. */
+	private static final int OPERATION_MASK = 0x3f;
+
+	/** Read cache over the spill file: PAGE_COUNT pages of 4KB, each page in a fixed slot. */
+	private static final int PAGE_BITS = 12;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_COUNT = 256;
+
+	private final String prefix;
+	private final long spillThreshold;
+
+	private int count;
+	private byte[] status = new byte[256];
+	private int[] offsets = new int[257];
+
+	private byte[] heap = new byte[8192];
+	private int size;
+
+	private File spillFile;
+	private RandomAccessFile spill;
+	private ByteBuffer spillBuffer;
+	/** The cached pages of the spill file, null while it has unflushed writes. */
+	private byte[][] pages;
+	private int[] pageNumbers;
+
+	private int[] sorted;
+
+	/**
+	 * @param prefix the branch URL every change is expected to start with
+	 */
+	public ChangeSet(String prefix) {
+		this(prefix, DEFAULT_SPILL_THRESHOLD);
+	}
+
+	public ChangeSet(String prefix, long spillThreshold) {
+		this.prefix = prefix;
+		this.spillThreshold = spillThreshold;
+	}
+
+	public String getPrefix() {
+		return prefix;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * Adds a change whose node kind is not known (e.g. read back from a diff file).
+	 *
+	 * @param operation 'A', 'M' or 'D'
+	 * @param url the full URL of the changed node
+	 * @throws IOException if the spill file cannot be written
+	 */
+	public void add(char operation, String url) throws IOException {
+		add(operation, url, false);
+	}
+
+	/**
+	 * Adds a change.
+	 *
+	 * @param operation 'A', 'M' or 'D'
+	 * @param url the full URL of the changed node
+	 * @param directory true if the node is a directory
+	 * @throws IOException if the spill file cannot be written
+	 */
+	public void add(char operation, String url, boolean directory) throws IOException {
+		int flags = operation & OPERATION_MASK;
+		if (directory) {
+			flags |= DIRECTORY;
+		}
+		String stored = url;
+		if (url.startsWith(prefix)) {
+			stored = url.substring(prefix.length());
+		} else {
+			flags |= FULL_URL;
+		}
+		byte[] bytes = stored.getBytes(UTF8);
+		if ((long) size + bytes.length > Integer.MAX_VALUE) {
+			throw new IOException("change set too large: " + count + " entries");
+		}
+
+		if (count == status.length) {
+			status = copyOf(status, count * 2);
+			offsets = copyOf(offsets, count * 2 + 1);
+		}
+		status[count] = (byte) flags;
+		offsets[count] = size;
+		append(bytes);
+		count++;
+		offsets[count] = size;
+		sorted = null;
+	}
+
+	/**
+	 * Iterates the changes sorted by path.
+	 */
+	public Iterator<Change> iterator() {
+		final int[] order = sortedOrder();
+		return new Iterator<Change>() {
+			private int next = 0;
+
+			public boolean hasNext() {
+				return next < order.length;
+			}
+
+			public Change next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return get(order[next++]);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Removes the spill file, if one was created.
+	 */
+	public void close() throws IOException {
+		pages = null;
+		if (spill != null) {
+			spill.close();
+			spill = null;
+		}
+		if (spillFile != null) {
+			if (!spillFile.delete()) {
+				System.err.println("unable to delete change set spill file " + spillFile);
+			}
+			spillFile = null;
+		}
+	}
+
+	/**
+	 * @return the spill file, null if the changes are all on the heap
+	 */
+	File getSpillFile() {
+		return spillFile;
+	}
+
+	private Change get(int i) {
+		int flags = status[i];
+		int from = offsets[i];
+		byte[] bytes = new byte[offsets[i + 1] - from];
+		if (pages != null) {
+			for (int k = 0; k < bytes.length; k++) {
+				bytes[k] = (byte) byteAt(from + k);
+			}
+		} else {
+			System.arraycopy(heap, from, bytes, 0, bytes.length);
+		}
+		String path = new String(bytes, UTF8);
+		char operation = (char) (0x40 | (flags & OPERATION_MASK));
+		boolean directory = (flags & DIRECTORY) != 0;
+		if ((flags & FULL_URL) != 0) {
+			return new Change(operation, path, path, directory, false);
+		}
+		return new Change(operation, path, prefix + path, directory, true);
+	}
+
+	private void append(byte[] bytes) throws IOException {
+		if (spill == null && size + bytes.length > spillThreshold) {
+			spill();
+		}
+		if (spill == null) {
+			if (size + bytes.length > heap.length) {
+				heap = copyOf(heap, Math.max(heap.length * 2, size + bytes.length));
+			}
+			System.arraycopy(bytes, 0, heap, size, bytes.length);
+		} else {
+			if (bytes.length > spillBuffer.remaining()) {
+				flushSpill();
+			}
+			if (bytes.length > spillBuffer.remaining()) {
+				spill.getChannel().write(ByteBuffer.wrap(bytes));
+			} else {
+				spillBuffer.put(bytes);
+			}
+			pages = null;
+		}
+		size += bytes.length;
+	}
+
+	private void spill() throws IOException {
+		spillFile = File.createTempFile("sde-changes", ".bin");
+		spillFile.deleteOnExit();
+		spill = new RandomAccessFile(spillFile, "rw");
+		spill.write(heap, 0, size);
+		spillBuffer = ByteBuffer.allocate(64 * 1024);
+		heap = null;
+	}
+
+	private void flushSpill() throws IOException {
+		spillBuffer.flip();
+		FileChannel channel = spill.getChannel();
+		while (spillBuffer.hasRemaining()) {
+			channel.write(spillBuffer);
+		}
+		spillBuffer.clear();
+	}
+
+	/**
+	 * Flushes the spill file (if any) and sorts the entry indexes by stored path.
+	 */
+	private int[] sortedOrder() {
+		if (sorted != null) {
+			return sorted;
+		}
+		if (spill != null && pages == null) {
+			try {
+				flushSpill();
+			} catch (IOException e) {
+				throw new IllegalStateException("unable to write change set spill file " + spillFile, e);
+			}
+			pages = new byte[PAGE_COUNT][PAGE_SIZE];
+			pageNumbers = new int[PAGE_COUNT];
+			Arrays.fill(pageNumbers, -1);
+		}
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		mergeSort(order, new int[count], 0, count);
+		sorted = order;
+		return sorted;
+	}
+
+	private void mergeSort(int[] a, int[] tmp, int from, int to) {
+		if (to - from < 2) {
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		mergeSort(a, tmp, from, mid);
+		mergeSort(a, tmp, mid, to);
+		if (compare(a[mid - 1], a[mid]) <= 0) {
+			return;
+		}
+		System.arraycopy(a, from, tmp, from, to - from);
+		int i = from, j = mid, k = from;
+		while (i < mid && j < to) {
+			a[k++] = compare(tmp[i], tmp[j]) <= 0 ? tmp[i++] : tmp[j++];
+		}
+		while (i < mid) {
+			a[k++] = tmp[i++];
+		}
+		while (j < to) {
+			a[k++] = tmp[j++];
+		}
+	}
+
+	/**
+	 * Orders by parent directory, then by name, each compared as unsigned bytes
+	 * of the stored UTF-8 (the same as code point order). A parent directory
+	 * always sorts before its children. Whole URLs sort after the prefixed paths.
+	 */
+	private int compare(int a, int b) {
+		int fa = status[a] & FULL_URL;
+		int fb = status[b] & FULL_URL;
+		if (fa != fb) {
+			return fa - fb;
+		}
+		int sa = lastSlash(a);
+		int sb = lastSlash(b);
+		int diff = compareBytes(offsets[a], sa, offsets[b], sb);
+		if (diff != 0) {
+			return diff;
+		}
+		return compareBytes(sa, offsets[a + 1], sb, offsets[b + 1]);
+	}
+
+	private int compareBytes(int pa, int ea, int pb, int eb) {
+		while (pa < ea && pb < eb) {
+			int diff = byteAt(pa++) - byteAt(pb++);
+			if (diff != 0) {
+				return diff;
+			}
+		}
+		return (ea - pa) - (eb - pb);
+	}
+
+	/**
+	 * @return the arena position of the last '/' of entry i, or its start if none.
+	 */
+	private int lastSlash(int i) {
+		int from = offsets[i];
+		for (int pos = offsets[i + 1] - 1; pos >= from; pos--) {
+			if (byteAt(pos) == '/') {
+				return pos;
+			}
+		}
+		return from;
+	}
+
+	private int byteAt(int pos) {
+		if (pages == null) {
+			return heap[pos] & 0xff;
+		}
+		int page = pos >>> PAGE_BITS;
+		int slot = page & (PAGE_COUNT - 1);
+		if (pageNumbers[slot] != page) {
+			loadPage(slot, page);
+		}
+		return pages[slot][pos & (PAGE_SIZE - 1)] & 0xff;
+	}
+
+	private void loadPage(int slot, int page) {
+		long position = (long) page << PAGE_BITS;
+		ByteBuffer buffer = ByteBuffer.wrap(pages[slot], 0, (int) Math.min(PAGE_SIZE, size - position));
+		try {
+			FileChannel channel = spill.getChannel();
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, position + buffer.position()) < 0) {
+					throw new IOException("unexpected end of file");
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("unable to read change set spill file " + spillFile, e);
+		}
+		pageNumbers[slot] = page;
+	}
+
+	private static byte[] copyOf(byte[] src, int length) {
+		byte[] copy = new byte[length];
+		System.arraycopy(src, 0, copy, 0, Math.min(src.length, length));
+		return copy;
+	}
+
+	private static int[] copyOf(int[] src, int length) {
+		int[] copy = new int[length];
+		System.arraycopy(src, 0, copy, 0, Math.min(src.length, length));
+		return copy;
+	}
+
+	/**
+	 * A single entry of the change set.
+	 */
+	public static class Change {
+
+		private final char operation;
+		private final String path;
+		private final String url;
+		private final boolean directory;
+		private final boolean underPrefix;
+
+		Change(char operation, String path, String url, boolean directory, boolean underPrefix) {
+			this.operation = operation;
+			this.path = path;
+			this.url = url;
+			this.directory = directory;
+			this.underPrefix = underPrefix;
+		}
+
+		/**
+		 * @return 'A', 'M' or 'D'
+		 */
+		public char getOperation() {
+			return operation;
+		}
+
+		/**
+		 * @return the path relative to the change set prefix (leading '/'), or
+		 * the whole URL if it did not share the prefix.
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		/**
+		 * @return true if the node is known to be a directory. Changes read
+		 * back from a diff file are never flagged.
+		 */
+		public boolean isDirectory() {
+			return directory;
+		}
+
+		/**
+		 * @return false if the URL did not start with the change set prefix.
+		 */
+		public boolean isUnderPrefix() {
+			return underPrefix;
+		}
+
+		/**
+		 * Same format as a line of the diff file: "M http://...".
+		 */
+		public String toString() {
+			return operation + " " + url;
+		}
+	}
+}
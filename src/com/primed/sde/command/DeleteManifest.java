@@ -0,0 +1,218 @@
+package com.primed.sde.command;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.tmatesoft.svn.core.ISVNDirEntryHandler;
+import org.tmatesoft.svn.core.SVNDirEntry;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNNodeKind;
+import org.tmatesoft.svn.core.internal.util.SVNEncodingUtil;
+import org.tmatesoft.svn.core.io.SVNRepository;
+
+import com.primed.sde.Progress;
+
+/**
+ * Writes the paths deleted by a diff into the package, one per line relative to
+ * the package root, so the deploy side can remove stale files without comparing
+ * trees. A deleted directory is expanded into the files it held by walking it
+ * with getDir at the old revision; every directory is listed after its content,
+ * with a trailing '/', so the manifest can be applied top to bottom. Files found
+ * by the walk are checked against the same {@link PathFilter} as the export.
+ */
+public class DeleteManifest {
+
+	protected static String NEW_LINE = System.getProperty("line.separator");
+
+	private final SVNRepository repository;
+	private final long revision;
+	private final boolean kindsKnown;
+	private final PathFilter filter;
+
+	/**
+	 * @param repository a session on the old branch
+	 * @param revision the old revision, where the deleted paths still exist
+	 * @param kindsKnown true if the change set flags directories; otherwise the
+	 * parent directories of the deleted paths are listed to find out
+	 * @param filter the paths that were exported
+	 */
+	public DeleteManifest(SVNRepository repository, long revision, boolean kindsKnown, PathFilter filter) {
+		this.repository = repository;
+		this.revision = revision;
+		this.kindsKnown = kindsKnown;
+		this.filter = filter;
+	}
+
+	/**
+	 * Writes the manifest if the change set contains any deletions.
+	 *
+	 * @param changes
+	 * @param manifest the file to write
+	 * @return the number of paths listed
+	 * @throws SVNException
+	 * @throws IOException
+	 */
+	public int write(ChangeSet changes, File manifest) throws SVNException, IOException {
+		List<String> paths = list(changes);
+		if (!paths.isEmpty()) {
+			write(paths, manifest);
+		}
+		Progress.debug("listed " + paths.size() + " deleted paths in " + manifest);
+		return paths.size();
+	}
+
+	/**
+	 * Lists the deletions of a change set, leaving out the paths the same set
+	 * adds back, such as a file replaced by a directory of the same name.
+	 *
+	 * @param changes
+	 * @return the manifest lines, in the order they are to be applied
+	 * @throws SVNException
+	 */
+	public List<String> list(ChangeSet changes) throws SVNException {
+		Set<String> directories = kindsKnown ? null : deletedDirectories(changes);
+		List<String> paths = new ArrayList<String>();
+		for (ChangeSet.Change change : changes) {
+			if (change.getOperation() != 'D' || !change.isUnderPrefix()) {
+				continue;
+			}
+			String path = relativePath(change);
+			if (change.isDirectory() || (directories != null && directories.contains(path))) {
+				walk(path, paths);
+			} else {
+				paths.add(path);
+			}
+		}
+		Set<String> lines = new LinkedHashSet<String>(paths);
+		dropLive(lines, changes);
+		return new ArrayList<String>(lines);
+	}
+
+	/**
+	 * Removes the manifest lines that the added or modified paths of a change
+	 * set make live again: the path itself, as a file or a directory, and each
+	 * of its parent directories.
+	 *
+	 * @param lines manifest lines
+	 * @param changes
+	 */
+	static void dropLive(Collection<String> lines, ChangeSet changes) {
+		if (lines.isEmpty()) {
+			return;
+		}
+		for (ChangeSet.Change change : changes) {
+			if (change.getOperation() == 'D' || !change.isUnderPrefix()) {
+				continue;
+			}
+			String path = relativePath(change);
+			lines.remove(path);
+			lines.remove(path + "/");
+			for (int slash = path.lastIndexOf('/'); slash > 0; slash = path.lastIndexOf('/', slash - 1)) {
+				lines.remove(path.substring(0, slash + 1));
+			}
+		}
+	}
+
+	/**
+	 * Writes manifest lines to a file.
+	 *
+	 * @param paths
+	 * @param manifest
+	 * @throws IOException
+	 */
+	public static void write(Collection<String> paths, File manifest) throws IOException {
+		Writer output = new BufferedWriter(new FileWriter(manifest));
+		try {
+			for (String path : paths) {
+				output.write(path);
+				output.write(NEW_LINE);
+			}
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * @param change
+	 * @return the decoded path of the change below the branch, without a leading '/'
+	 */
+	static String relativePath(ChangeSet.Change change) {
+		String path = SVNEncodingUtil.uriDecode(change.getPath());
+		while (path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		return path;
+	}
+
+	/**
+	 * Finds which deleted paths of unknown kind are directories, with one
+	 * getDir per parent directory rather than a round trip per path.
+	 *
+	 * @return the relative paths of the deleted directories
+	 */
+	private Set<String> deletedDirectories(ChangeSet changes) throws SVNException {
+		Set<String> parents = new TreeSet<String>();
+		for (ChangeSet.Change change : changes) {
+			if (change.getOperation() == 'D' && change.isUnderPrefix() && !change.isDirectory()) {
+				String path = relativePath(change);
+				int slash = path.lastIndexOf('/');
+				parents.add(slash < 0 ? "" : path.substring(0, slash));
+			}
+		}
+		final Set<String> directories = new HashSet<String>();
+		for (final String parent : parents) {
+			repository.getDir(parent, revision, null, SVNDirEntry.DIRENT_KIND, new ISVNDirEntryHandler() {
+				public void handleDirEntry(SVNDirEntry entry) {
+					if (entry.getKind() == SVNNodeKind.DIR) {
+						directories.add(parent.length() == 0 ? entry.getName() : parent + "/" + entry.getName());
+					}
+				}
+			});
+		}
+		return directories;
+	}
+
+	/**
+	 * Lists the files of dir, then its subdirectories, then dir itself.
+	 */
+	private void walk(String dir, List<String> paths) throws SVNException {
+		final List<String> files = new ArrayList<String>();
+		final List<String> dirs = new ArrayList<String>();
+		repository.getDir(dir, revision, null, SVNDirEntry.DIRENT_KIND, new ISVNDirEntryHandler() {
+			public void handleDirEntry(SVNDirEntry entry) {
+				if (entry.getKind() == SVNNodeKind.DIR) {
+					dirs.add(entry.getName());
+				} else {
+					files.add(entry.getName());
+				}
+			}
+		});
+		Collections.sort(files);
+		Collections.sort(dirs);
+
+		for (String file : files) {
+			if (filter.accept(dir + "/" + file, false)) {
+				paths.add(dir + "/" + file);
+			}
+		}
+		for (String sub : dirs) {
+			if (filter.accept(dir + "/" + sub, true)) {
+				walk(dir + "/" + sub, paths);
+			}
+		}
+		if (filter.accept(dir, true)) {
+			paths.add(dir + "/");
+		}
+	}
+}
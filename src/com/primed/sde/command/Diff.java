@@ -5,11 +5,12 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.ArrayList;
-import java.util.List;
 
 import org.tmatesoft.svn.core.SVNDepth;
+import org.tmatesoft.svn.core.SVNErrorCode;
+import org.tmatesoft.svn.core.SVNErrorMessage;
 import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNNodeKind;
 import org.tmatesoft.svn.core.SVNURL;
 import org.tmatesoft.svn.core.wc.ISVNDiffStatusHandler;
 import org.tmatesoft.svn.core.wc.SVNDiffClient;
@@ -31,12 +32,13 @@ public class Diff implements ISVNDiffStatusHandler {
 
 	protected static String NEW_LINE = System.getProperty("line.separator");
 	
-	private List<String> changes;
+	private ChangeSet changes;
 
 	private final SVNDiffClient client;
 	private final SVNURL oldBranch;
 	private final SVNURL newBranch;
 	private final String diff;
+	private final PathFilter filter;
 	
 	/**
 	 * Performs a svn diff summerize.
@@ -49,11 +51,27 @@ public class Diff implements ISVNDiffStatusHandler {
 	 * @throws IOException
 	 */
 	public Diff(SVNDiffClient client, SVNURL oldBranch, SVNURL newBranch, String diff) throws SVNException, IOException {
+		this(client, oldBranch, newBranch, diff, PathFilter.ALL);
+	}
+
+	/**
+	 * Performs a svn diff summerize, leaving out the paths rejected by the filter.
+	 * 
+	 * @param client
+	 * @param oldBranch the full branch/tag url
+	 * @param newBranch the full branch/tag url
+	 * @param diff
+	 * @param filter
+	 * @throws SVNException
+	 * @throws IOException
+	 */
+	public Diff(SVNDiffClient client, SVNURL oldBranch, SVNURL newBranch, String diff, PathFilter filter) throws SVNException, IOException {
 		this.client = client;
 		this.oldBranch = oldBranch;
 		this.newBranch = newBranch;
 		this.diff = diff;
-		changes = new ArrayList<String>();
+		this.filter = filter;
+		changes = new ChangeSet(oldBranch.toString());
 	}
 	
 	/**
@@ -63,17 +81,28 @@ public class Diff implements ISVNDiffStatusHandler {
 	 * @throws IOException
 	 */
 	public void execute() throws SVNException, IOException {
-		client.doDiffStatus(oldBranch, SVNRevision.HEAD, newBranch, SVNRevision.HEAD, SVNDepth.INFINITY, false, this);
-		File diffFile = new DiffFile(diff,changes);
-		new DiffInfoFile(diffFile.getParent()+DIFF_INFO);
+		try {
+			client.doDiffStatus(oldBranch, SVNRevision.HEAD, newBranch, SVNRevision.HEAD, SVNDepth.INFINITY, false, this);
+			File diffFile = new DiffFile(diff,changes);
+			new DiffInfoFile(diffFile.getParent()+DIFF_INFO);
+		} finally {
+			changes.close();
+		}
 	}
 	
 	public void handleDiffStatus(SVNDiffStatus svnDiffStatus) throws SVNException {
+		if (!filter.accept(svnDiffStatus.getPath(), svnDiffStatus.getKind() == SVNNodeKind.DIR)) {
+			return;
+		}
 		if( svnDiffStatus.getModificationType().equals(SVNStatusType.STATUS_MODIFIED) || 
 				svnDiffStatus.getModificationType().equals(SVNStatusType.STATUS_ADDED) ||
 				svnDiffStatus.getModificationType().equals(SVNStatusType.STATUS_DELETED)) {
 		
-				changes.add(encodeStatus(svnDiffStatus.getModificationType())+" "+svnDiffStatus.getURL());
+				try {
+					changes.add(encodeStatus(svnDiffStatus.getModificationType()), svnDiffStatus.getURL().toString());
+				} catch (IOException e) {
+					throw new SVNException(SVNErrorMessage.create(SVNErrorCode.IO_ERROR, e.getMessage()), e);
+				}
 		}
 	}
 	
@@ -82,14 +111,14 @@ public class Diff implements ISVNDiffStatusHandler {
 	 * @param modificationType
 	 * @return
 	 */
-	private String encodeStatus(SVNStatusType modificationType) {
+	static char encodeStatus(SVNStatusType modificationType) {
 		if (modificationType.equals(SVNStatusType.STATUS_MODIFIED)) 
-			return "M";
+			return 'M';
 		if (modificationType.equals(SVNStatusType.STATUS_ADDED)) 
-			return "A";
+			return 'A';
 		if (modificationType.equals(SVNStatusType.STATUS_DELETED)) 
-			return "D";
-		return "?";
+			return 'D';
+		return '?';
 	}
 
 	/**
@@ -99,12 +128,12 @@ public class Diff implements ISVNDiffStatusHandler {
 		
 		private static final long serialVersionUID = -850805471980707152L;
 
-		DiffFile(String pathname, List<String> changes) throws IOException {
+		DiffFile(String pathname, ChangeSet changes) throws IOException {
 			super(pathname);
 			createNewFile();
 			Writer output = new BufferedWriter(new FileWriter(this));
-			for (String change : changes) {
-				output.write(change);
+			for (ChangeSet.Change change : changes) {
+				output.write(change.toString());
 				output.write(NEW_LINE);
 			}
 			output.close();
@@ -10,26 +10,39 @@ import java.io.InputStreamReader;
 import org.tmatesoft.svn.core.SVNDepth;
 import org.tmatesoft.svn.core.SVNException;
 import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.auth.ISVNAuthenticationManager;
+import org.tmatesoft.svn.core.internal.util.SVNEncodingUtil;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
 import org.tmatesoft.svn.core.wc.SVNRevision;
 import org.tmatesoft.svn.core.wc.SVNUpdateClient;
 
+import com.primed.sde.Progress;
+
 /**
  * Reads and exports the content of diff.patch. It will only export the 'added' and 
- * 'modified' files, ignoring 'delete' commands (which you should deal with later in
- * the deployment process)
+ * 'modified' files. The 'delete' commands are written to a deleted.txt manifest in
+ * the target (see {@link DeleteManifest}) for the deployment process to apply.
  * 
  * @author philip gloyne (philip.gloyne@gmail.com)
  * @since 25-JAN-2010
  */
-public class Export {
+public class Export implements ExportPlanner.FileExporter {
 
 	protected static String NEW_LINE = System.getProperty("line.separator");
 
+	public static final String DELETE_MANIFEST = "deleted.txt";
+
 	private final SVNUpdateClient client;
+	private final ISVNAuthenticationManager auth;
 	private final File diff;
 	private final String oldBranch;
 	private final String newBranch;
 	private final String target;
+	private final PathFilter filter;
+	private final ExportWorkers workers;
+	private final ExportWorkers.ClientPool clients;
+	private Progress progress;
 	
 	/**
 	 * Reads and exports the content of diff.patch.
@@ -43,11 +56,39 @@ public class Export {
 	 * @throws IOException
 	 */
 	public Export(SVNUpdateClient client, File diff, String oldBranch, String newBranch, String target) throws SVNException, IOException {
+		this(client, null, diff, oldBranch, newBranch, target, PathFilter.ALL, ExportWorkers.SERIAL);
+	}
+
+	/**
+	 * Reads and exports the content of diff.patch, skipping the paths rejected by
+	 * the filter, and lists the deleted paths in a manifest using a session on
+	 * the old branch.
+	 * 
+	 * @param client
+	 * @param auth used to open the session on the old branch, null to skip the
+	 * manifest; required with more than one connection, as the extra clients need it
+	 * @param diff the diff.patch
+	 * @param oldBranch the older branch (should be the same at the current baseline export).
+	 * @param newBranch the new branch which you wish you take the baseline to.
+	 * @param target the directory to output the exports
+	 * @param filter the paths to export
+	 * @param workers runs the fetches, the extra connections use auth
+	 * @throws SVNException
+	 * @throws IOException
+	 */
+	public Export(SVNUpdateClient client, ISVNAuthenticationManager auth, File diff, String oldBranch, String newBranch, String target, PathFilter filter, ExportWorkers workers) throws SVNException, IOException {
 		this.client = client;
+		this.auth = auth;
 		this.diff = diff;
 		this.oldBranch = oldBranch;
 		this.newBranch = newBranch;
 		this.target = target;
+		this.filter = filter;
+		this.workers = workers;
+		if (auth == null && workers.getConnections() > 1) {
+			throw new IllegalArgumentException("an authentication manager is required to export over " + workers.getConnections() + " connections");
+		}
+		this.clients = new ExportWorkers.ClientPool(client, auth, client.getOptions());
 	}
 	
 	/**
@@ -63,43 +104,72 @@ public class Export {
 		InputStreamReader isr = new InputStreamReader(is);
 		BufferedReader buf = new BufferedReader(isr);
 
-		String line;
-		while ((line = buf.readLine()) != null) {
-			export(line);
+		ChangeSet changes = new ChangeSet(oldBranch);
+		try {
+			String line;
+			while ((line = buf.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0) {
+					continue;
+				}
+				String url = line.substring(1).trim();
+				if (url.startsWith(oldBranch)
+						&& !filter.acceptUnknownKind(SVNEncodingUtil.uriDecode(url.substring(oldBranch.length())))) {
+					continue;
+				}
+				changes.add(line.charAt(0), url);
+			}
+			
+			buf.close();
+			isr.close();
+			is.close();
+
+			ExportPlanner planner = new ExportPlanner(changes, new File(target));
+			progress = new Progress("export", planner.createDirectories());
+			workers.run(planner, this);
+			progress.finish();
+
+			if (auth != null) {
+				writeDeleteManifest(changes);
+			}
+		} finally {
+			changes.close();
 		}
-		
-		buf.close();
-		isr.close();
-		is.close();
 	}
 	
 	/**
-	 * Called for each line in the diff.patch. Exports a single file to the target.
+	 * Lists the deletions at the HEAD of the old branch, where they still exist.
+	 */
+	private void writeDeleteManifest(ChangeSet changes) throws SVNException, IOException {
+		SVNRepository repository = SVNRepositoryFactory.create(SVNURL.parseURIEncoded(oldBranch));
+		repository.setAuthenticationManager(auth);
+		try {
+			long head = repository.getLatestRevision();
+			new DeleteManifest(repository, head, false, filter).write(changes, new File(target, DELETE_MANIFEST));
+		} finally {
+			repository.closeSession();
+		}
+	}
+	
+	/**
+	 * Called by the planner for each added or modified file in the diff.patch,
+	 * possibly from several worker threads at once. Exports a single file from
+	 * the new branch to the target.
 	 * 
 	 * @param change
-	 * @throws IOException
-	 * @throws InterruptedException
+	 * @param f where to write the file, its directory already exists
 	 * @throws SVNException
 	 */
-	private void export(String change) throws IOException, InterruptedException, SVNException {
-		String operation = change.trim().charAt(0) + "";
-		String path = change.trim().substring(1).trim();
-		SVNURL location = SVNURL.parseURIEncoded(path.replace(oldBranch, newBranch));
-		String exportTo = target + path.replaceFirst(oldBranch, "");
-		File f = new File(exportTo);
-		File d = new File(f.getAbsolutePath().replaceFirst(f.getName(), ""));
-		d.mkdirs();
-
-		if (operation.equalsIgnoreCase("D")) {
-			// Handle deletes if you wish, be careful of directories. 
-			
-		} else if (operation.equalsIgnoreCase("M") || operation.equalsIgnoreCase("A")) {
+	public void export(ChangeSet.Change change, File f) throws SVNException {
+		SVNURL location = SVNURL.parseURIEncoded(newBranch + change.getPath());
+		Progress.debug("exporting path: " + f.toString());
+		SVNUpdateClient client = clients.borrow();
+		try {
 			client.doExport(location,f,SVNRevision.HEAD,SVNRevision.HEAD,"native",true,SVNDepth.EMPTY );		
-
-		} else {
-			throw new IOException("Error! Malformed operation: " + operation);
+		} finally {
+			clients.giveBack(client);
 		}
-
+		progress.fileDone(f.length());
 	}
 
 }
@@ -10,13 +10,19 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Writer;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.tmatesoft.svn.core.SVNDepth;
+import org.tmatesoft.svn.core.SVNErrorCode;
+import org.tmatesoft.svn.core.SVNErrorMessage;
 import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNNodeKind;
 import org.tmatesoft.svn.core.SVNURL;
 import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
 import org.tmatesoft.svn.core.wc.ISVNDiffStatusHandler;
 import org.tmatesoft.svn.core.wc.ISVNOptions;
 import org.tmatesoft.svn.core.wc.SVNDiffClient;
@@ -28,10 +34,11 @@ import org.tmatesoft.svn.core.wc.SVNUpdateClient;
 import org.tmatesoft.svn.core.wc.SVNWCClient;
 import org.tmatesoft.svn.core.wc.SVNWCUtil;
 
+import com.primed.sde.Progress;
 import com.primed.sde.command.Diff.DiffFile;
 import com.primed.sde.command.Revision.RevisionFile;
 
-public class ExportAndZipRevision implements ISVNDiffStatusHandler {
+public class ExportAndZipRevision implements ISVNDiffStatusHandler, ExportPlanner.FileExporter {
 
     protected static String NEW_LINE = System.getProperty("line.separator");
     protected static String PATH_SEP = "/"; //System.getProperty("path.separator");
@@ -42,13 +49,20 @@ public class ExportAndZipRevision implements ISVNDiffStatusHandler {
     private final BasicAuthenticationManager bam;
     private final SVNURL branch;
     private final boolean individualZipFiles;
+    private final PathFilter filter;
+    private final Zip.Format zipFormat;
+    private final ExportWorkers workers;
     private static boolean alreadyCleanedTargetFolder = false;
+    private static StagingManager staging = new StagingManager(new File(TARGET_FOLDER));
+    /** export_zip: lines of the cumulative delete manifest, in the order to apply them. */
+    private static final Set<String> netDeletions = new LinkedHashSet<String>();
     private String revisionNumberString;
     private String previousRevisionString;
     private SVNRevision revision;
     private SVNRevision previousRevision;
-    private List<String> changes;
-    private SVNUpdateClient updateClient;
+    private ChangeSet changes;
+    private ExportWorkers.ClientPool clients;
+    private Progress progress;
 
     /**
      * Reads and exports the content of diff.patch.
@@ -62,16 +76,24 @@ public class ExportAndZipRevision implements ISVNDiffStatusHandler {
      * @throws IOException
      */
     public ExportAndZipRevision(BasicAuthenticationManager bam, ISVNOptions options, SVNURL branch, String revisionNumber, boolean individualZipFiles) throws SVNException, IOException {
+        this(bam, options, branch, revisionNumber, individualZipFiles, PathFilter.ALL, Zip.Format.STANDARD, ExportWorkers.SERIAL);
+    }
+
+    public ExportAndZipRevision(BasicAuthenticationManager bam, ISVNOptions options, SVNURL branch, String revisionNumber, boolean individualZipFiles, PathFilter filter, Zip.Format zipFormat, ExportWorkers workers) throws SVNException, IOException {
         this.bam = bam;
+        this.filter = filter;
+        this.zipFormat = zipFormat;
+        this.workers = workers;
         this.options = options;
         this.branch = branch;
         this.revisionNumberString = revisionNumber;
         this.individualZipFiles = individualZipFiles;
 
-        this.changes = new ArrayList<String>();
+        this.changes = new ChangeSet(branch.toString());
 
         if (!individualZipFiles && !alreadyCleanedTargetFolder) {
             cleanTargetFolder();
+            netDeletions.clear();
             alreadyCleanedTargetFolder = true;
         }
     }
@@ -102,12 +124,33 @@ public class ExportAndZipRevision implements ISVNDiffStatusHandler {
 
         new File(TARGET_FOLDER).mkdirs();
 
-        SVNDiffClient diffClient = new SVNDiffClient(bam, options);
-        diffClient.doDiffStatus(branch, previousRevision, branch, revision, SVNDepth.INFINITY, false, this);
+        try {
+            SVNDiffClient diffClient = new SVNDiffClient(bam, options);
+            diffClient.doDiffStatus(branch, previousRevision, branch, revision, SVNDepth.INFINITY, false, this);
+            if (!individualZipFiles) {
+                removeDeletedFromStaging();
+            }
+
+            this.clients = new ExportWorkers.ClientPool(null, bam, options);
+            ExportPlanner planner = new ExportPlanner(changes, new File(TARGET_FOLDER));
+            this.progress = new Progress("export r" + revisionNumberString, planner.createDirectories());
+            workers.run(planner, this);
+            progress.finish();
 
-        this.updateClient = new SVNUpdateClient(bam, options);
-        for (String change : changes) {
-            export(change);
+            SVNRepository repository = SVNRepositoryFactory.create(branch);
+            repository.setAuthenticationManager(bam);
+            try {
+                DeleteManifest manifest = new DeleteManifest(repository, previousRevisionNumber, true, filter);
+                if (individualZipFiles) {
+                    manifest.write(changes, new File(TARGET_FOLDER + PATH_SEP + "deleted-" + revisionNumberString + ".txt"));
+                } else {
+                    updateNetDeletions(manifest.list(changes));
+                }
+            } finally {
+                repository.closeSession();
+            }
+        } finally {
+            changes.close();
         }
 
         SVNWCClient infoClient = new SVNWCClient(bam, options);
@@ -119,81 +162,110 @@ public class ExportAndZipRevision implements ISVNDiffStatusHandler {
         if (!zipTarget.exists()) {
             throw new RuntimeException("zip file: " + zipTarget.toString() + " not found!");
         }
-        new Zip(zipTarget, "export-" + revisionNumberString + ".zip").execute();
+        new Zip(zipTarget, "export-" + revisionNumberString + ".zip", PathFilter.ALL, zipFormat).execute();
+    }
+
+    /**
+     * export_zip stages every revision into the same folder, so a path deleted
+     * now must not ship if an earlier revision of the run staged it.
+     */
+    private void removeDeletedFromStaging() throws IOException {
+        for (ChangeSet.Change change : changes) {
+            if (change.getOperation() == 'D' && change.isUnderPrefix()) {
+                File staged = new File(TARGET_FOLDER, DeleteManifest.relativePath(change));
+                if (!StagingManager.delete(staged)) {
+                    throw new IOException("Error! Unable to remove deleted path from staging folder: " + staged);
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the export_zip delete manifest net of the whole run: paths deleted
+     * by this revision are added, and paths it adds or modifies are dropped
+     * together with their parent directories, so applying the manifest after
+     * unpacking never removes a file the zip ships.
+     *
+     * @param deleted the manifest lines of this revision
+     */
+    private void updateNetDeletions(List<String> deleted) throws IOException {
+        for (String path : deleted) {
+            netDeletions.remove(path);
+            netDeletions.add(path);
+        }
+        DeleteManifest.dropLive(netDeletions, changes);
+        File manifest = new File(TARGET_FOLDER, Export.DELETE_MANIFEST);
+        if (netDeletions.isEmpty()) {
+            manifest.delete();
+        } else {
+            DeleteManifest.write(netDeletions, manifest);
+        }
     }
 
-    private void cleanTargetFolder() {
-        System.err.println("Cleaning out target folder ...");
-        File d = new File(TARGET_FOLDER).getAbsoluteFile();
-        deleteDirectory(d);
+    /**
+     * @return the zip written by {@link #execute()}, next to the staging folder
+     */
+    public File getZipFile() {
+        return new File(new File(TARGET_FOLDER).getAbsoluteFile().getParentFile(), "export-" + revisionNumberString + ".zip");
+    }
+
+    /**
+     * Stages into another folder than ./export, and starts a new rolling zip.
+     * For tests, which can't change the working directory.
+     *
+     * @param folder
+     */
+    static void useTargetFolder(File folder) {
+        TARGET_FOLDER = folder.getPath();
+        staging = new StagingManager(folder);
+        alreadyCleanedTargetFolder = false;
+        netDeletions.clear();
+    }
+
+    private void cleanTargetFolder() throws IOException {
+        Progress.debug("Cleaning out target folder ...");
+        staging.clean();
     }
     
     public void handleDiffStatus(SVNDiffStatus svnDiffStatus) throws SVNException {
+        if (!filter.accept(svnDiffStatus.getPath(), svnDiffStatus.getKind() == SVNNodeKind.DIR)) {
+            return;
+        }
         if (svnDiffStatus.getModificationType().equals(SVNStatusType.STATUS_MODIFIED)
                 || svnDiffStatus.getModificationType().equals(SVNStatusType.STATUS_ADDED)
                 || svnDiffStatus.getModificationType().equals(SVNStatusType.STATUS_DELETED)) {
 
-            changes.add(encodeStatus(svnDiffStatus.getModificationType()) + " " + svnDiffStatus.getURL());
-        }
-    }
-
-    private String encodeStatus(SVNStatusType modificationType) {
-        if (modificationType.equals(SVNStatusType.STATUS_MODIFIED)) {
-            return "M";
-        }
-        if (modificationType.equals(SVNStatusType.STATUS_ADDED)) {
-            return "A";
-        }
-        if (modificationType.equals(SVNStatusType.STATUS_DELETED)) {
-            return "D";
+            try {
+                changes.add(Diff.encodeStatus(svnDiffStatus.getModificationType()), svnDiffStatus.getURL().toString(),
+                        svnDiffStatus.getKind() == SVNNodeKind.DIR);
+            } catch (IOException e) {
+                throw new SVNException(SVNErrorMessage.create(SVNErrorCode.IO_ERROR, e.getMessage()), e);
+            }
         }
-        return "?";
     }
 
     /**
-     * Called for each line in the diff.patch. Exports a single file to the target.
+     * Called by the planner for each added or modified file, possibly from
+     * several worker threads at once. The parent directory already exists.
      *
      * @param change
-     * @throws IOException
-     * @throws InterruptedException
+     * @param f where to write the file
      * @throws SVNException
      */
-    private void export(String change) throws IOException, InterruptedException, SVNException {
-        System.err.println("export(" + change + ")");
-        String operation = change.trim().charAt(0) + "";
-        String path = change.trim().substring(1).trim();
-        String exportTo = TARGET_FOLDER + path.replaceFirst(branch.toString(), "");
-        File f = new File(exportTo);
-        File d = new File(f.getAbsolutePath().replaceFirst(f.getName(), ""));
-        System.err.println("exporting to: " + d.toString());
-        d.mkdirs();
-
-         SVNURL location= SVNURL.parseURIEncoded(path);
-		
-		if (operation.equalsIgnoreCase("D")) {
-            // Handle deletes if you wish, be careful of directories.
-        } else if (operation.equalsIgnoreCase("M") || operation.equalsIgnoreCase("A")) {
-            System.err.println("exporting path: " + f.toString());
-            updateClient.doExport(location, d, revision, revision, "native", true, SVNDepth.EMPTY);
-
-        } else {
-            throw new IOException("Error! Malformed operation: " + operation);
+    public void export(ChangeSet.Change change, File f) throws SVNException {
+        Progress.debug("exporting path: " + f.toString());
+        SVNURL location = SVNURL.parseURIEncoded(change.getUrl());
+        SVNUpdateClient updateClient = clients.borrow();
+        try {
+            updateClient.doExport(location, f, revision, revision, "native", true, SVNDepth.EMPTY);
+        } finally {
+            clients.giveBack(updateClient);
         }
-
+        progress.fileDone(f.length());
     }
 
     static public boolean deleteDirectory(File path) {
-        if (path.exists()) {
-            File[] files = path.listFiles();
-            for (int i = 0; i < files.length; i++) {
-                if (files[i].isDirectory()) {
-                    deleteDirectory(files[i]);
-                } else {
-                    files[i].delete();
-                }
-            }
-        }
-        return (path.delete());
+        return StagingManager.delete(path);
     }
 
     class RevisionFile extends File {
@@ -0,0 +1,151 @@
+package com.primed.sde.command;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.internal.util.SVNEncodingUtil;
+
+import com.primed.sde.Progress;
+
+/**
+ * Plans the export of a {@link ChangeSet} into a target directory. The whole
+ * directory tree is created up front, one mkdir per directory with parents
+ * first, and the files are then handed out directory by directory in the
+ * change set's order. Added directories are created locally and never fetched.
+ *
+ * Local paths come from the change's path relative to the branch (URI-decoded),
+ * so file names with regex or URL special characters are handled literally.
+ */
+public class ExportPlanner {
+
+	/**
+	 * Fetches a single file.
+	 */
+	public interface FileExporter {
+		void export(ChangeSet.Change change, File file) throws IOException, SVNException;
+	}
+
+	private final ChangeSet changes;
+	private final File target;
+	private int fileCount = -1;
+
+	/**
+	 * @param changes the changes to export, paths relative to the branch
+	 * @param target the directory to output the exports
+	 */
+	public ExportPlanner(ChangeSet changes, File target) {
+		this.changes = changes;
+		this.target = target;
+	}
+
+	/**
+	 * @param change
+	 * @return where the change is written below the target
+	 */
+	public File fileFor(ChangeSet.Change change) {
+		return new File(target, localPath(change.getPath()));
+	}
+
+	/**
+	 * Creates the target directory tree: every parent of an exported file and
+	 * every added or modified directory. Deleted entries are skipped.
+	 *
+	 * @return the number of files to be exported
+	 * @throws IOException if a change lies outside the branch or a directory can't be created
+	 */
+	public int createDirectories() throws IOException {
+		Set<String> created = new HashSet<String>();
+		mkdir(target);
+		created.add("");
+
+		int files = 0;
+		String lastParent = null;
+		for (ChangeSet.Change change : changes) {
+			if (!change.isUnderPrefix()) {
+				throw new IOException("Error! Change outside of " + changes.getPrefix() + ": " + change.getUrl());
+			}
+			if (change.getOperation() == 'D') {
+				continue;
+			}
+			String path = localPath(change.getPath());
+			if (change.isDirectory()) {
+				createPath(path, created);
+			} else {
+				String parent = parentOf(path);
+				if (!parent.equals(lastParent)) {
+					createPath(parent, created);
+					lastParent = parent;
+				}
+				files++;
+			}
+		}
+		Progress.debug("created " + (created.size() - 1) + " directories below " + target);
+		fileCount = files;
+		return files;
+	}
+
+	/**
+	 * Number of files found by {@link #createDirectories()}.
+	 */
+	public int getFileCount() {
+		return fileCount;
+	}
+
+	/**
+	 * Hands every added or modified file to the exporter, grouped by directory.
+	 * {@link #createDirectories()} must have been called first.
+	 *
+	 * @param exporter
+	 * @throws IOException
+	 * @throws SVNException
+	 */
+	public void execute(FileExporter exporter) throws IOException, SVNException {
+		if (fileCount < 0) {
+			throw new IllegalStateException("createDirectories() has not been called");
+		}
+		for (ChangeSet.Change change : changes) {
+			if (change.getOperation() == 'D' || change.isDirectory()) {
+				continue;
+			}
+			if (change.getOperation() != 'A' && change.getOperation() != 'M') {
+				throw new IOException("Error! Malformed operation: " + change.getOperation());
+			}
+			exporter.export(change, fileFor(change));
+		}
+	}
+
+	/**
+	 * Creates path and any missing parents, each checked against the set of
+	 * directories already made so no directory is touched twice.
+	 */
+	private void createPath(String path, Set<String> created) throws IOException {
+		if (created.contains(path)) {
+			return;
+		}
+		createPath(parentOf(path), created);
+		mkdir(new File(target, path));
+		created.add(path);
+	}
+
+	private static void mkdir(File dir) throws IOException {
+		if (!dir.mkdir() && !dir.isDirectory()) {
+			throw new IOException("Error! Unable to create directory: " + dir);
+		}
+	}
+
+	private static String parentOf(String path) {
+		int slash = path.lastIndexOf('/');
+		return slash > 0 ? path.substring(0, slash) : "";
+	}
+
+	private static String localPath(String encodedPath) {
+		String path = SVNEncodingUtil.uriDecode(encodedPath);
+		while (path.endsWith("/")) {
+			path = path.substring(0, path.length() - 1);
+		}
+		return path;
+	}
+}
@@ -0,0 +1,227 @@
+package com.primed.sde.command;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.auth.ISVNAuthenticationManager;
+import org.tmatesoft.svn.core.wc.ISVNOptions;
+import org.tmatesoft.svn.core.wc.SVNUpdateClient;
+
+import com.primed.sde.Progress;
+
+/**
+ * Runs the file fetches of an export concurrently. A fetch is almost entirely
+ * waiting on the server, so with virtual threads (Java 21+) each one gets its
+ * own cheap thread; on older runtimes, or when not asked for, a fixed pool of
+ * platform threads is used instead. Either way a {@link Semaphore} caps the
+ * number of fetches in flight, and so the connections held open to the server.
+ * The permit is taken before a task is submitted, so a huge change set never
+ * queues more than that many tasks.
+ *
+ * One instance is meant to be shared by all revisions of a run and shut down
+ * at the end. With a single connection everything runs on the calling thread.
+ */
+public class ExportWorkers {
+
+	public static final ExportWorkers SERIAL = new ExportWorkers(1, false);
+
+	private final int connections;
+	private final Semaphore permits;
+	private final ExecutorService executor;
+	private final boolean virtual;
+
+	/**
+	 * @param connections the maximum number of concurrent fetches
+	 * @param preferVirtualThreads use virtual threads if the runtime has them
+	 */
+	public ExportWorkers(int connections, boolean preferVirtualThreads) {
+		this.connections = Math.max(1, connections);
+		this.permits = new Semaphore(this.connections);
+		ExecutorService virtualExecutor = null;
+		if (this.connections > 1 && preferVirtualThreads) {
+			virtualExecutor = newVirtualThreadExecutor();
+			if (virtualExecutor == null) {
+				System.err.println("virtual threads not available on Java " + System.getProperty("java.version")
+						+ ", using " + this.connections + " platform threads");
+			}
+		}
+		this.virtual = virtualExecutor != null;
+		if (virtual) {
+			executor = virtualExecutor;
+		} else if (this.connections > 1) {
+			executor = Executors.newFixedThreadPool(this.connections, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "export-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		} else {
+			executor = null;
+		}
+	}
+
+	public int getConnections() {
+		return connections;
+	}
+
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	/**
+	 * Hands every file of the plan to the exporter and waits for all of them.
+	 * After the first failure no more files are started, and the failure is
+	 * rethrown once the fetches in flight have finished.
+	 *
+	 * @param planner a planner whose directories have been created
+	 * @param exporter must be safe to call from several threads
+	 * @throws IOException
+	 * @throws SVNException
+	 * @throws InterruptedException
+	 */
+	public void run(ExportPlanner planner, final ExportPlanner.FileExporter exporter) throws IOException, SVNException, InterruptedException {
+		if (executor == null) {
+			planner.execute(exporter);
+			return;
+		}
+		Progress.debug("exporting with " + connections + (virtual ? " virtual" : " platform") + " threads");
+
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		try {
+			planner.execute(new ExportPlanner.FileExporter() {
+				public void export(final ChangeSet.Change change, final File file) throws IOException, SVNException {
+					rethrow(failure.get());
+					try {
+						permits.acquire();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IOException("export interrupted");
+					}
+					Runnable fetch = new Runnable() {
+						public void run() {
+							try {
+								if (failure.get() == null) {
+									exporter.export(change, file);
+								}
+							} catch (Throwable t) {
+								failure.compareAndSet(null, t);
+							} finally {
+								permits.release();
+							}
+						}
+					};
+					try {
+						executor.execute(fetch);
+					} catch (RuntimeException e) {
+						permits.release();
+						throw e;
+					}
+				}
+			});
+		} finally {
+			// every permit back means every submitted fetch has finished
+			permits.acquire(connections);
+			permits.release(connections);
+		}
+		rethrow(failure.get());
+	}
+
+	/**
+	 * Stops the worker threads.
+	 */
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	private static void rethrow(Throwable t) throws IOException, SVNException {
+		if (t == null) {
+			return;
+		}
+		if (t instanceof IOException) {
+			throw (IOException) t;
+		}
+		if (t instanceof SVNException) {
+			throw (SVNException) t;
+		}
+		if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		}
+		if (t instanceof Error) {
+			throw (Error) t;
+		}
+		throw new IOException(t.toString());
+	}
+
+	/**
+	 * Executors.newVirtualThreadPerTaskExecutor(), looked up at runtime so the
+	 * tool still builds and runs on older JDKs.
+	 *
+	 * @return the executor, or null if the runtime has no virtual threads
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (Exception e) {
+			// missing before Java 19, preview-only (UnsupportedOperationException) before 21
+			return null;
+		}
+	}
+
+	/**
+	 * SVNUpdateClients for concurrent fetches. A client is not safe to share
+	 * between threads, so each fetch borrows one; at most one per connection
+	 * is ever created because the fetches are capped by the workers' semaphore.
+	 */
+	public static class ClientPool {
+
+		private final ISVNAuthenticationManager auth;
+		private final ISVNOptions options;
+		private final Queue<SVNUpdateClient> idle = new ConcurrentLinkedQueue<SVNUpdateClient>();
+
+		/**
+		 * @param first an existing client to use first, may be null
+		 * @param auth for the clients the pool creates, may only be null if
+		 * first is given and never borrowed twice at once
+		 * @param options
+		 */
+		public ClientPool(SVNUpdateClient first, ISVNAuthenticationManager auth, ISVNOptions options) {
+			this.auth = auth;
+			this.options = options;
+			if (first != null) {
+				idle.add(first);
+			}
+		}
+
+		public SVNUpdateClient borrow() {
+			SVNUpdateClient client = idle.poll();
+			if (client != null) {
+				return client;
+			}
+			if (auth == null) {
+				// the default manager would drop the caller's credentials
+				throw new IllegalStateException("no authentication manager for another connection");
+			}
+			return new SVNUpdateClient(auth, options);
+		}
+
+		public void giveBack(SVNUpdateClient client) {
+			idle.add(client);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package com.primed.sde.command;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Include/exclude rules for the paths of a branch, applied before anything is
+ * fetched or zipped. Each rule is a glob matched against the path relative to
+ * the branch root:
+ *
+ * <ul>
+ * <li>without a '/' it matches a file or directory name at any depth: *.psd</li>
+ * <li>a trailing '/' only matches directories, and everything below: docs/</li>
+ * <li>a leading '/' (or any '/' in the middle) anchors it at the root: /test/</li>
+ * <li>'*' and '?' stay within one name, '**' spans directories: web/**&#47;*.tmp</li>
+ * </ul>
+ *
+ * A path is accepted if it matches no exclude rule and, when there are include
+ * rules, a file also matches one of them. Directories are never dropped by the
+ * include rules, only by the excludes. All rules of a kind are compiled into
+ * one regular expression.
+ */
+public class PathFilter {
+
+	public static final PathFilter ALL = new PathFilter(new ArrayList<String>(), new ArrayList<String>());
+
+	private final Pattern include;
+	private final Pattern exclude;
+
+	public PathFilter(List<String> includes, List<String> excludes) {
+		this.include = compile(includes);
+		this.exclude = compile(excludes);
+	}
+
+	/**
+	 * @param includes comma separated include rules, may be null
+	 * @param excludes comma separated exclude rules, may be null
+	 * @return the filter
+	 */
+	public static PathFilter parse(String includes, String excludes) {
+		return new PathFilter(split(includes), split(excludes));
+	}
+
+	public boolean acceptsAll() {
+		return include == null && exclude == null;
+	}
+
+	/**
+	 * @param path relative to the branch root, '/' separated, leading '/' optional
+	 * @param directory true if the path is known to be a directory
+	 * @return true if the path should be exported
+	 */
+	public boolean accept(String path, boolean directory) {
+		if (acceptsAll()) {
+			return true;
+		}
+		int start = 0;
+		while (start < path.length() && path.charAt(start) == '/') {
+			start++;
+		}
+		String relative = path.substring(start);
+		if (directory) {
+			relative = relative + "/";
+		}
+		if (exclude != null && exclude.matcher(relative).matches()) {
+			return false;
+		}
+		return include == null || directory || include.matcher(relative).matches();
+	}
+
+	/**
+	 * For paths whose node kind isn't known, like the lines of a diff.patch:
+	 * rejected if either a file or a directory of that name would be, so a
+	 * directory-only rule such as docs/ still drops the directory itself.
+	 *
+	 * @param path relative to the branch root, '/' separated, leading '/' optional
+	 * @return true if the path should be exported
+	 */
+	public boolean acceptUnknownKind(String path) {
+		return accept(path, false) && accept(path, true);
+	}
+
+	private static List<String> split(String rules) {
+		List<String> list = new ArrayList<String>();
+		if (rules != null) {
+			for (String rule : rules.split(",")) {
+				if (rule.trim().length() > 0) {
+					list.add(rule.trim());
+				}
+			}
+		}
+		return list;
+	}
+
+	private static Pattern compile(List<String> globs) {
+		if (globs.isEmpty()) {
+			return null;
+		}
+		StringBuilder regex = new StringBuilder();
+		for (String glob : globs) {
+			if (regex.length() > 0) {
+				regex.append('|');
+			}
+			regex.append("(?:").append(toRegex(glob)).append(')');
+		}
+		return Pattern.compile(regex.toString());
+	}
+
+	/**
+	 * Translates one rule into a regex matching a whole relative path.
+	 */
+	static String toRegex(String glob) {
+		boolean directoryOnly = glob.endsWith("/");
+		String body = directoryOnly ? glob.substring(0, glob.length() - 1) : glob;
+		boolean anchored = body.indexOf('/') >= 0;
+		while (body.startsWith("/")) {
+			body = body.substring(1);
+		}
+
+		StringBuilder regex = new StringBuilder();
+		if (!anchored) {
+			regex.append("(?:.*/)?");
+		}
+		int i = 0;
+		while (i < body.length()) {
+			char c = body.charAt(i);
+			if (body.startsWith("**/", i)) {
+				regex.append("(?:.*/)?");
+				i += 3;
+			} else if (body.startsWith("**", i)) {
+				regex.append(".*");
+				i += 2;
+			} else if (c == '*') {
+				regex.append("[^/]*");
+				i++;
+			} else if (c == '?') {
+				regex.append("[^/]");
+				i++;
+			} else {
+				int next = i;
+				while (next < body.length() && "*?".indexOf(body.charAt(next)) < 0) {
+					next++;
+				}
+				regex.append(Pattern.quote(body.substring(i, next)));
+				i = next;
+			}
+		}
+		regex.append(directoryOnly ? "/.*" : "(?:/.*)?");
+		return regex.toString();
+	}
+}
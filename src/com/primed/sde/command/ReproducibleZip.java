@@ -0,0 +1,386 @@
+package com.primed.sde.command;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a .zip whose bytes depend only on the names and content of the files:
+ * entries are sorted by name, and every timestamp, attribute and flag is fixed.
+ * Two runs over the same export give identical archives (for the same JDK, as
+ * the deflate output comes from its zlib).
+ *
+ * In indexed mode the archive is always ZIP64 and its first entry, stored
+ * uncompressed, is {@link #INDEX_NAME}: one line per entry with the absolute
+ * offset of its data, compressed size, size, CRC-32 and method, then the name.
+ * A client reading the first few KB of the archive can range-read any entry
+ * without fetching the central directory at the end.
+ *
+ * Every file is compressed once into a spool file first, so that sizes and
+ * offsets are known before the archive is written.
+ */
+public class ReproducibleZip {
+
+	public static final String INDEX_NAME = "zip-index.txt";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+	/** 1980-01-01 00:00, the earliest MS-DOS date. */
+	private static final int DOS_DATE = (1 << 5) | 1;
+	private static final int DOS_TIME = 0;
+	/** Regular file, rw-r--r--, in the upper half of the external attributes. */
+	private static final long UNIX_FILE_ATTRIBUTES = 0100644L << 16;
+	/** Names are UTF-8. */
+	private static final int FLAGS = 1 << 11;
+
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+
+	/** "offset csize size crc method " before the name, with fixed widths. */
+	private static final String INDEX_LINE = "%020d %020d %020d %08x %d ";
+	private static final int INDEX_LINE_LENGTH = 20 + 1 + 20 + 1 + 20 + 1 + 8 + 1 + 1 + 1;
+
+	private final boolean indexed;
+	private final List<Entry> entries = new ArrayList<Entry>();
+
+	/**
+	 * @param indexed true to force ZIP64 and write the entry index first
+	 */
+	public ReproducibleZip(boolean indexed) {
+		this.indexed = indexed;
+	}
+
+	/**
+	 * @param name the entry name, '/' separated
+	 * @param file the content
+	 */
+	public void add(String name, File file) {
+		entries.add(new Entry(name, file));
+	}
+
+	/**
+	 * Writes the archive.
+	 *
+	 * @param zipFile
+	 * @throws IOException
+	 */
+	public void write(File zipFile) throws IOException {
+		Collections.sort(entries, new Comparator<Entry>() {
+			public int compare(Entry a, Entry b) {
+				return a.name.compareTo(b.name);
+			}
+		});
+
+		File spool = File.createTempFile("sde-zip", ".spool");
+		try {
+			compress(spool);
+
+			List<Entry> all = new ArrayList<Entry>();
+			Entry index = null;
+			if (indexed) {
+				index = new Entry(INDEX_NAME, null);
+				index.method = STORED;
+				index.size = index.csize = indexLength();
+				all.add(index);
+			}
+			all.addAll(entries);
+
+			long largest = 0;
+			for (Entry entry : all) {
+				largest = Math.max(largest, Math.max(entry.size, entry.csize));
+			}
+			boolean zip64 = indexed || requiresZip64(all.size(), layout(all, false), largest);
+			layout(all, zip64);
+
+			byte[] indexBytes = null;
+			if (index != null) {
+				indexBytes = indexContent();
+				CRC32 crc = new CRC32();
+				crc.update(indexBytes);
+				index.crc = crc.getValue();
+			}
+
+			CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile), 64 * 1024));
+			InputStream data = new FileInputStream(spool);
+			try {
+				for (Entry entry : all) {
+					if (out.count != entry.offset) {
+						throw new IllegalStateException("zip layout mismatch at " + entry.name);
+					}
+					out.write(entry.localHeader());
+					if (entry == index) {
+						out.write(indexBytes);
+					} else {
+						copy(data, out, entry.csize);
+					}
+				}
+				long centralOffset = out.count;
+				for (Entry entry : all) {
+					out.write(entry.centralHeader());
+				}
+				long centralSize = out.count - centralOffset;
+				out.write(end(all.size(), centralOffset, centralSize, zip64));
+			} finally {
+				data.close();
+				out.close();
+			}
+		} finally {
+			spool.delete();
+		}
+	}
+
+	/**
+	 * ZIP64 is all or nothing here: it is used as soon as any count, offset or
+	 * size doesn't fit the 16 and 32 bit fields of the classic headers. A file
+	 * of 4GB or more needs it even when it deflates to less.
+	 *
+	 * @param entries the number of entries
+	 * @param centralOffset where the central directory starts without ZIP64
+	 * @param largest the largest size or compressed size of any entry
+	 * @return true if the archive must be ZIP64
+	 */
+	static boolean requiresZip64(int entries, long centralOffset, long largest) {
+		return entries >= ZIP64_MAGIC_COUNT || centralOffset >= ZIP64_MAGIC || largest >= ZIP64_MAGIC;
+	}
+
+	/**
+	 * Assigns the offset of every entry.
+	 *
+	 * @return where the central directory starts
+	 */
+	private static long layout(List<Entry> all, boolean zip64) {
+		long offset = 0;
+		for (Entry entry : all) {
+			offset = entry.layout(offset, zip64);
+		}
+		return offset;
+	}
+
+	/**
+	 * First pass: deflate every file into the spool, in order, falling back to
+	 * stored when deflate does not make it smaller.
+	 */
+	private void compress(File spool) throws IOException {
+		FileOutputStream spoolStream = new FileOutputStream(spool);
+		OutputStream out = new BufferedOutputStream(spoolStream, 64 * 1024);
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		byte[] buffer = new byte[64 * 1024];
+		byte[] compressed = new byte[64 * 1024];
+		try {
+			long position = 0;
+			for (Entry entry : entries) {
+				CRC32 crc = new CRC32();
+				deflater.reset();
+				long csize = 0;
+				long size = 0;
+				InputStream in = new FileInputStream(entry.file);
+				try {
+					int read;
+					while ((read = in.read(buffer)) != -1) {
+						crc.update(buffer, 0, read);
+						size += read;
+						deflater.setInput(buffer, 0, read);
+						while (!deflater.needsInput()) {
+							int n = deflater.deflate(compressed);
+							out.write(compressed, 0, n);
+							csize += n;
+						}
+					}
+					deflater.finish();
+					while (!deflater.finished()) {
+						int n = deflater.deflate(compressed);
+						out.write(compressed, 0, n);
+						csize += n;
+					}
+				} finally {
+					in.close();
+				}
+				entry.crc = crc.getValue();
+				entry.size = size;
+				entry.method = DEFLATED;
+				if (csize >= size) {
+					out.flush();
+					spoolStream.getChannel().truncate(position);
+					spoolStream.getChannel().position(position);
+					copyFile(entry.file, out, buffer);
+					entry.method = STORED;
+					csize = size;
+				}
+				entry.csize = csize;
+				position += csize;
+			}
+		} finally {
+			deflater.end();
+			out.close();
+		}
+	}
+
+	private long indexLength() {
+		long length = 0;
+		for (Entry entry : entries) {
+			length += INDEX_LINE_LENGTH + entry.nameBytes.length + 1;
+		}
+		return length;
+	}
+
+	private byte[] indexContent() {
+		StringBuilder sb = new StringBuilder();
+		for (Entry entry : entries) {
+			sb.append(String.format(Locale.US, INDEX_LINE, entry.dataOffset(), entry.csize, entry.size, entry.crc, entry.method));
+			sb.append(entry.name).append('\n');
+		}
+		return sb.toString().getBytes(UTF8);
+	}
+
+	private static byte[] end(int count, long centralOffset, long centralSize, boolean zip64) {
+		ByteBuffer b = buffer(zip64 ? 56 + 20 + 22 : 22);
+		if (zip64) {
+			long zip64End = centralOffset + centralSize;
+			b.putInt(0x06064b50).putLong(44).putShort((short) ((3 << 8) | 45)).putShort((short) 45);
+			b.putInt(0).putInt(0).putLong(count).putLong(count).putLong(centralSize).putLong(centralOffset);
+			b.putInt(0x07064b50).putInt(0).putLong(zip64End).putInt(1);
+		}
+		b.putInt(0x06054b50).putShort((short) 0).putShort((short) 0);
+		b.putShort((short) (zip64 ? ZIP64_MAGIC_COUNT : count)).putShort((short) (zip64 ? ZIP64_MAGIC_COUNT : count));
+		b.putInt((int) (zip64 ? ZIP64_MAGIC : centralSize)).putInt((int) (zip64 ? ZIP64_MAGIC : centralOffset));
+		b.putShort((short) 0);
+		return b.array();
+	}
+
+	private static ByteBuffer buffer(int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static void copy(InputStream in, OutputStream out, long length) throws IOException {
+		byte[] buffer = new byte[64 * 1024];
+		while (length > 0) {
+			int read = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+			if (read == -1) {
+				throw new IOException("zip spool truncated");
+			}
+			out.write(buffer, 0, read);
+			length -= read;
+		}
+	}
+
+	private static void copyFile(File file, OutputStream out, byte[] buffer) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * One archive entry and its place in the layout.
+	 */
+	private static class Entry {
+
+		final String name;
+		final byte[] nameBytes;
+		final File file;
+		int method;
+		long crc;
+		long size;
+		long csize;
+		long offset;
+		boolean zip64;
+
+		Entry(String name, File file) {
+			this.name = name;
+			this.nameBytes = name.getBytes(UTF8);
+			this.file = file;
+		}
+
+		/**
+		 * @return the offset after this entry
+		 */
+		long layout(long offset, boolean zip64) {
+			this.offset = offset;
+			this.zip64 = zip64;
+			return dataOffset() + csize;
+		}
+
+		long dataOffset() {
+			return offset + 30 + nameBytes.length + (zip64 ? 20 : 0);
+		}
+
+		int versionNeeded() {
+			return zip64 ? 45 : method == DEFLATED ? 20 : 10;
+		}
+
+		byte[] localHeader() {
+			ByteBuffer b = buffer(30 + nameBytes.length + (zip64 ? 20 : 0));
+			b.putInt(0x04034b50).putShort((short) versionNeeded()).putShort((short) FLAGS).putShort((short) method);
+			b.putShort((short) DOS_TIME).putShort((short) DOS_DATE).putInt((int) crc);
+			b.putInt((int) (zip64 ? ZIP64_MAGIC : csize)).putInt((int) (zip64 ? ZIP64_MAGIC : size));
+			b.putShort((short) nameBytes.length).putShort((short) (zip64 ? 20 : 0));
+			b.put(nameBytes);
+			if (zip64) {
+				b.putShort((short) 0x0001).putShort((short) 16).putLong(size).putLong(csize);
+			}
+			return b.array();
+		}
+
+		byte[] centralHeader() {
+			ByteBuffer b = buffer(46 + nameBytes.length + (zip64 ? 28 : 0));
+			b.putInt(0x02014b50).putShort((short) ((3 << 8) | versionNeeded())).putShort((short) versionNeeded());
+			b.putShort((short) FLAGS).putShort((short) method);
+			b.putShort((short) DOS_TIME).putShort((short) DOS_DATE).putInt((int) crc);
+			b.putInt((int) (zip64 ? ZIP64_MAGIC : csize)).putInt((int) (zip64 ? ZIP64_MAGIC : size));
+			b.putShort((short) nameBytes.length).putShort((short) (zip64 ? 28 : 0)).putShort((short) 0);
+			b.putShort((short) 0).putShort((short) 0).putInt((int) UNIX_FILE_ATTRIBUTES);
+			b.putInt((int) (zip64 ? ZIP64_MAGIC : offset));
+			b.put(nameBytes);
+			if (zip64) {
+				b.putShort((short) 0x0001).putShort((short) 24).putLong(size).putLong(csize).putLong(offset);
+			}
+			return b.array();
+		}
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+
+		private final OutputStream out;
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+}
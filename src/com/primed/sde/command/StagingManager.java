@@ -0,0 +1,201 @@
+package com.primed.sde.command;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
+
+import com.primed.sde.Progress;
+
+/**
+ * Keeps the staging folder (export/) clean between revisions without holding up
+ * the export. {@link #clean()} renames the old folder aside, a single rename,
+ * and deletes it on a background thread while the next revision is exported.
+ * If the rename is not possible the folder is deleted in place, in parallel.
+ *
+ * Folders renamed aside but not yet deleted when a previous run died are swept
+ * up by the next {@link #clean()}. Call {@link #awaitPending()} before exiting
+ * so the background deletes finish.
+ */
+public class StagingManager {
+
+	private static final String TRASH = ".trash-";
+
+	private static final ExecutorService cleaner = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "staging-cleanup");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	private static final List<Future<?>> pending = new ArrayList<Future<?>>();
+
+	private final File folder;
+
+	public StagingManager(File folder) {
+		this.folder = folder.getAbsoluteFile();
+	}
+
+	/**
+	 * Empties the staging folder. Returns as soon as the folder name is free;
+	 * the old content is removed in the background.
+	 *
+	 * @throws IOException if the folder can be neither moved nor deleted
+	 */
+	public void clean() throws IOException {
+		for (File trash : leftovers()) {
+			deleteLater(trash);
+		}
+		if (!folder.exists()) {
+			return;
+		}
+		File trash = new File(folder.getParentFile(), "." + folder.getName() + TRASH + System.nanoTime());
+		if (folder.renameTo(trash)) {
+			deleteLater(trash);
+		} else {
+			Progress.debug("unable to move " + folder + " aside, deleting in place");
+			if (!delete(folder)) {
+				throw new IOException("Error! Unable to clean staging folder: " + folder);
+			}
+		}
+	}
+
+	/**
+	 * Blocks until every background delete has finished.
+	 */
+	public static void awaitPending() throws InterruptedException {
+		List<Future<?>> waitFor;
+		synchronized (pending) {
+			waitFor = new ArrayList<Future<?>>(pending);
+			pending.clear();
+		}
+		for (Future<?> future : waitFor) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				System.err.println("staging cleanup failed: " + e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Deletes a file or directory tree, walking subdirectories in parallel.
+	 * Entries that vanish or can't be listed are skipped rather than failing.
+	 *
+	 * @param path
+	 * @return true if path no longer exists
+	 */
+	public static boolean delete(File path) {
+		Path root = path.toPath();
+		if (Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS)) {
+			ForkJoinPool.commonPool().invoke(new DeleteTree(root));
+		} else {
+			try {
+				Files.deleteIfExists(root);
+			} catch (IOException e) {
+				// reported by the exists() check below
+			}
+		}
+		return !Files.exists(root, LinkOption.NOFOLLOW_LINKS);
+	}
+
+	private void deleteLater(final File trash) {
+		Future<?> future = cleaner.submit(new Runnable() {
+			public void run() {
+				long start = System.currentTimeMillis();
+				if (!delete(trash)) {
+					System.err.println("unable to delete old staging folder: " + trash);
+				}
+				Progress.debug("deleted " + trash + " in " + (System.currentTimeMillis() - start) + "ms");
+			}
+		});
+		synchronized (pending) {
+			// a long running watch cleans once per revision, keep only what is still running
+			for (Iterator<Future<?>> i = pending.iterator(); i.hasNext();) {
+				if (i.next().isDone()) {
+					i.remove();
+				}
+			}
+			pending.add(future);
+		}
+	}
+
+	/**
+	 * @return the number of background deletes not yet known to be finished
+	 */
+	static int pendingCount() {
+		synchronized (pending) {
+			return pending.size();
+		}
+	}
+
+	private File[] leftovers() {
+		final String prefix = "." + folder.getName() + TRASH;
+		File[] found = folder.getParentFile().listFiles(new FileFilter() {
+			public boolean accept(File f) {
+				return f.getName().startsWith(prefix);
+			}
+		});
+		return found == null ? new File[0] : found;
+	}
+
+	/**
+	 * Deletes the files of one directory and forks a task per subdirectory.
+	 */
+	private static class DeleteTree extends RecursiveAction {
+
+		private static final long serialVersionUID = 5281943163401256170L;
+
+		private final Path dir;
+
+		DeleteTree(Path dir) {
+			this.dir = dir;
+		}
+
+		protected void compute() {
+			List<DeleteTree> subdirs = new ArrayList<DeleteTree>();
+			try {
+				DirectoryStream<Path> entries = Files.newDirectoryStream(dir);
+				try {
+					for (Path entry : entries) {
+						if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+							subdirs.add(new DeleteTree(entry));
+						} else {
+							deleteQuietly(entry);
+						}
+					}
+				} finally {
+					entries.close();
+				}
+			} catch (IOException e) {
+				// unreadable or already gone, the final delete below reports it
+			}
+			invokeAll(subdirs);
+			deleteQuietly(dir);
+		}
+
+		/**
+		 * Failures are left behind and reported by the caller's exists() check.
+		 */
+		private static void deleteQuietly(Path path) {
+			try {
+				Files.deleteIfExists(path);
+			} catch (IOException e) {
+				Progress.debug("unable to delete " + path + ": " + e);
+			}
+		}
+	}
+}
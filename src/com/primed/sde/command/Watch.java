@@ -0,0 +1,194 @@
+package com.primed.sde.command;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.tmatesoft.svn.core.ISVNLogEntryHandler;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNLogEntry;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+import org.tmatesoft.svn.core.wc.ISVNOptions;
+
+/**
+ * Watches a branch and packages every new commit on it as it lands, using the
+ * same pipeline as export_zips (one zip per revision) or export_zip (a rolling
+ * zip of everything since the watch started). The rolling zip is always
+ * {@link #ROLLING_ZIP}, replaced in one rename after each revision so a reader
+ * never sees it half written.
+ *
+ * One repository session is kept open for polling. Only revisions that touch
+ * the branch are packaged. The last packaged revision is saved to a state file
+ * after each zip, so a restarted watch carries on where it stopped; with no
+ * state file it starts from the current HEAD. A state file belongs to one
+ * branch, and watching another branch with it fails.
+ */
+public class Watch implements ISVNLogEntryHandler {
+
+	public static final String ROLLING_ZIP = "export-rolling.zip";
+
+	private static final String LAST_REVISION = "last-revision";
+	private static final String BRANCH = "branch";
+
+	private final BasicAuthenticationManager bam;
+	private final ISVNOptions options;
+	private final SVNURL branch;
+	private final File stateFile;
+	private final long intervalMillis;
+	private final boolean rolling;
+	private final PathFilter filter;
+	private final Zip.Format zipFormat;
+	private final ExportWorkers workers;
+	private final List<Long> revisions = new ArrayList<Long>();
+	private long lastRevision;
+
+	/**
+	 * @param bam
+	 * @param options
+	 * @param branch the branch to watch
+	 * @param stateFile where the last packaged revision is kept
+	 * @param intervalSeconds seconds between polls, 0 to poll once and return
+	 * @param rolling true for one rolling zip, false for a zip per revision
+	 * @param filter the paths to package
+	 * @param zipFormat
+	 * @param workers runs the file fetches of each revision
+	 */
+	public Watch(BasicAuthenticationManager bam, ISVNOptions options, SVNURL branch, File stateFile, long intervalSeconds, boolean rolling, PathFilter filter, Zip.Format zipFormat, ExportWorkers workers) {
+		this.bam = bam;
+		this.options = options;
+		this.branch = branch;
+		this.stateFile = stateFile;
+		this.intervalMillis = intervalSeconds * 1000;
+		this.rolling = rolling;
+		this.filter = filter;
+		this.zipFormat = zipFormat;
+		this.workers = workers;
+	}
+
+	/**
+	 * Polls until interrupted, or once if the interval is 0.
+	 *
+	 * @throws SVNException if the branch can't be reached on the first poll
+	 * @throws IOException if the state file can't be read or first written; when
+	 * polling repeatedly, later failures are logged and retried on the next poll
+	 * @throws InterruptedException
+	 */
+	public void execute() throws SVNException, IOException, InterruptedException {
+		SVNRepository repository = SVNRepositoryFactory.create(branch);
+		repository.setAuthenticationManager(bam);
+		try {
+			lastRevision = readState();
+			if (lastRevision < 0) {
+				writeState(repository.getLatestRevision());
+			}
+			System.err.println("watching " + branch + " from r" + lastRevision);
+
+			while (true) {
+				try {
+					poll(repository);
+				} catch (SVNException e) {
+					if (intervalMillis == 0) {
+						throw e;
+					}
+					retryLater(e);
+				} catch (IOException e) {
+					// e.g. a consumer holding the rolling zip open on Windows
+					if (intervalMillis == 0) {
+						throw e;
+					}
+					retryLater(e);
+				}
+				if (intervalMillis == 0) {
+					break;
+				}
+				Thread.sleep(intervalMillis);
+			}
+		} finally {
+			repository.closeSession();
+		}
+	}
+
+	private void retryLater(Exception e) {
+		System.err.println("watch: " + e.getMessage() + ", retrying in " + (intervalMillis / 1000) + "s");
+	}
+
+	public void handleLogEntry(SVNLogEntry logEntry) throws SVNException {
+		revisions.add(logEntry.getRevision());
+	}
+
+	/**
+	 * Packages every revision after the last processed one that touched the
+	 * branch, saving the state after each.
+	 */
+	private void poll(SVNRepository repository) throws SVNException, IOException, InterruptedException {
+		long latest = repository.getLatestRevision();
+		if (latest <= lastRevision) {
+			return;
+		}
+		revisions.clear();
+		repository.log(new String[] { "" }, lastRevision + 1, latest, false, false, this);
+		for (Long revision : revisions) {
+			long start = System.currentTimeMillis();
+			ExportAndZipRevision export = new ExportAndZipRevision(bam, options, branch, String.valueOf(revision), !rolling, filter, zipFormat, workers);
+			export.execute();
+			if (rolling) {
+				File zip = export.getZipFile();
+				Files.move(zip.toPath(), new File(zip.getParentFile(), ROLLING_ZIP).toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			}
+			writeState(revision);
+			System.err.println("packaged r" + revision + " in " + (System.currentTimeMillis() - start) + "ms");
+		}
+		writeState(latest);
+	}
+
+	private long readState() throws IOException {
+		if (!stateFile.exists()) {
+			return -1;
+		}
+		Properties state = new Properties();
+		InputStream in = new FileInputStream(stateFile);
+		try {
+			state.load(in);
+		} finally {
+			in.close();
+		}
+		String stateBranch = state.getProperty(BRANCH);
+		if (stateBranch != null && !stateBranch.trim().equals(branch.toString())) {
+			// its revision says nothing about this branch
+			throw new IOException("state file " + stateFile + " is for " + stateBranch.trim() + ", not " + branch
+					+ "; use another state file (-t) for each branch");
+		}
+		return Long.parseLong(state.getProperty(LAST_REVISION, "-1").trim());
+	}
+
+	/**
+	 * Writes to a temporary file and renames it over the state file, so a kill
+	 * mid-write never leaves a truncated state behind.
+	 */
+	private void writeState(long revision) throws IOException {
+		lastRevision = revision;
+		Properties state = new Properties();
+		state.setProperty(LAST_REVISION, String.valueOf(revision));
+		state.setProperty(BRANCH, branch.toString());
+		File tmp = new File(stateFile.getAbsoluteFile().getParentFile(), stateFile.getName() + ".tmp");
+		OutputStream out = new FileOutputStream(tmp);
+		try {
+			state.store(out, "svn-diff-export watch");
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Locale;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -16,8 +17,25 @@ import java.util.zip.ZipOutputStream;
  */
 public class Zip {
 
+	/**
+	 * STANDARD zips in directory order with the files' timestamps.
+	 * REPRODUCIBLE and INDEXED use {@link ReproducibleZip}.
+	 */
+	public enum Format {
+		STANDARD, REPRODUCIBLE, INDEXED;
+
+		/**
+		 * @param name case insensitive, null for STANDARD
+		 */
+		public static Format parse(String name) {
+			return name == null || name.trim().length() == 0 ? STANDARD : valueOf(name.trim().toUpperCase(Locale.US));
+		}
+	};
+
 	private final File target;
 	private final String zipFileName;
+	private final PathFilter filter;
+	private final Format format;
 
 	/**
 	 * Creates a .zip file of the target directory.
@@ -29,8 +47,35 @@ public class Zip {
 	}
 
 	public Zip(File target, String zipFileName) {
+		this(target, zipFileName, PathFilter.ALL);
+	}
+
+	/**
+	 * Creates a .zip file of the target directory, leaving out the files
+	 * rejected by the filter.
+	 * 
+	 * @param target
+	 * @param zipFileName
+	 * @param filter
+	 */
+	public Zip(File target, String zipFileName, PathFilter filter) {
+		this(target, zipFileName, filter, Format.STANDARD);
+	}
+
+	/**
+	 * Creates a .zip file of the target directory in the given format, leaving
+	 * out the files rejected by the filter.
+	 * 
+	 * @param target
+	 * @param zipFileName
+	 * @param filter
+	 * @param format
+	 */
+	public Zip(File target, String zipFileName, PathFilter filter, Format format) {
 		this.target = target;
 		this.zipFileName = zipFileName;
+		this.filter = filter;
+		this.format = format;
 	}
 
 	/**
@@ -43,8 +88,14 @@ public class Zip {
 	public void execute() throws IOException {
 		String zipPath = target.getAbsoluteFile().getParentFile().getPath() + "/";
 		//String zipName = target.getName() + ".zip";
+		if (format != Format.STANDARD) {
+			ReproducibleZip zip = new ReproducibleZip(format == Format.INDEXED);
+			collect(target, target, filter, zip);
+			zip.write(new File(zipPath + zipFileName));
+			return;
+		}
 		ZipOutputStream zos = new ZipOutputStream(new FileOutputStream( zipPath + zipFileName ));
-		zip(target, target, zos);
+		zip(target, target, filter, zos);
 		zos.close();
 	}
 
@@ -53,21 +104,25 @@ public class Zip {
 	 * 
 	 * @param directory
 	 * @param base
+	 * @param filter
 	 * @param zos
 	 * @throws IOException
 	 */
-	private static final void zip(File directory, File base, ZipOutputStream zos)
+	private static final void zip(File directory, File base, PathFilter filter, ZipOutputStream zos)
 			throws IOException {
 		File[] files = directory.listFiles();
 		byte[] buffer = new byte[8192];
 		int read = 0;
 		for (int i = 0, n = files.length; i < n; i++) {
+			String name = files[i].getPath().substring(base.getPath().length() + 1);
+			if (!filter.accept(name.replace(File.separatorChar, '/'), files[i].isDirectory())) {
+				continue;
+			}
 			if (files[i].isDirectory()) {
-				zip(files[i], base, zos);
+				zip(files[i], base, filter, zos);
 			} else {
 				FileInputStream in = new FileInputStream(files[i]);
-				ZipEntry entry = new ZipEntry(files[i].getPath().substring(
-						base.getPath().length() + 1));
+				ZipEntry entry = new ZipEntry(name);
 				zos.putNextEntry(entry);
 				while (-1 != (read = in.read(buffer))) {
 					zos.write(buffer, 0, read);
@@ -77,4 +132,27 @@ public class Zip {
 		}
 	}
 
+	/**
+	 * Recursively adds the files of a directory to a reproducible zip.
+	 * 
+	 * @param directory
+	 * @param base
+	 * @param filter
+	 * @param zip
+	 */
+	private static final void collect(File directory, File base, PathFilter filter, ReproducibleZip zip) {
+		File[] files = directory.listFiles();
+		for (int i = 0, n = files.length; i < n; i++) {
+			String name = files[i].getPath().substring(base.getPath().length() + 1).replace(File.separatorChar, '/');
+			if (!filter.accept(name, files[i].isDirectory())) {
+				continue;
+			}
+			if (files[i].isDirectory()) {
+				collect(files[i], base, filter, zip);
+			} else {
+				zip.add(name, files[i]);
+			}
+		}
+	}
+
 }
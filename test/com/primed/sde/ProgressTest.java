@@ -0,0 +1,79 @@
+package com.primed.sde;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test the progress line and the log levels.
+ */
+public class ProgressTest {
+
+	private static final long MB = 1024 * 1024;
+
+	@Test
+	public void debugOnlyAtDebugLevel() throws Exception {
+		ByteArrayOutputStream captured = new ByteArrayOutputStream();
+		Progress.setOutput(new PrintStream(captured, true, "UTF-8"));
+		try {
+			Progress.setLevel(Progress.Level.QUIET);
+			Progress.debug("quiet");
+			Progress.setLevel(Progress.Level.NORMAL);
+			Progress.debug("normal");
+			Progress.setLevel(Progress.Level.DEBUG);
+			Progress.debug("debug");
+			Assert.assertEquals("debug" + System.getProperty("line.separator"), captured.toString("UTF-8"));
+		} finally {
+			Progress.setLevel(Progress.Level.NORMAL);
+			Progress.setOutput(System.err);
+		}
+	}
+
+	@Test
+	public void quietDrawsNothing() throws Exception {
+		ByteArrayOutputStream captured = new ByteArrayOutputStream();
+		Progress.setLevel(Progress.Level.QUIET);
+		try {
+			Progress progress = new Progress("export", 2, new PrintStream(captured, true, "UTF-8"));
+			progress.fileDone(100);
+			progress.fileDone(100);
+			progress.finish();
+			Assert.assertEquals(0, captured.size());
+			Assert.assertEquals(2, progress.getFilesDone());
+			Assert.assertEquals(200, progress.getBytesDone());
+		} finally {
+			Progress.setLevel(Progress.Level.NORMAL);
+		}
+	}
+
+	@Test
+	public void finalLine() throws Exception {
+		ByteArrayOutputStream captured = new ByteArrayOutputStream();
+		Progress progress = new Progress("export r7", 3, new PrintStream(captured, true, "UTF-8"));
+		for (int i = 0; i < 3; i++) {
+			progress.fileDone(MB);
+		}
+		captured.reset();
+		progress.finish();
+
+		String line = captured.toString("UTF-8");
+		Assert.assertTrue(line, line.matches("\rexport r7: 3/3 files, 3\\.0 MB, [0-9.]+ MB/s, [0-9.]+s   " + System.getProperty("line.separator")));
+	}
+
+	@Test
+	public void rateAndEta() {
+		// 10 of 40 files in 5s: 10 MB / 5s, the other 30 files take another 15s
+		Assert.assertEquals("\rexport: 10/40 files, 10.0 MB, 2.00 MB/s, ETA 0m15s   ",
+				Progress.format("export", 10, 40, 10 * MB, 5.0, false));
+		Assert.assertEquals("\rexport: 1/31 files, 0.5 MB, 0.10 MB/s, ETA 2m30s   ",
+				Progress.format("export", 1, 31, MB / 2, 5.0, false));
+		Assert.assertEquals("\rexport: 40/40 files, 40.0 MB, 4.00 MB/s, 10.0s   ",
+				Progress.format("export", 40, 40, 40 * MB, 10.0, true));
+		// no ETA without a total, and no rate before any time has passed
+		Assert.assertEquals("\rexport: 5 files, 0.0 MB, 0.00 MB/s   ",
+				Progress.format("export", 5, 0, 0, 0, false));
+	}
+}
@@ -0,0 +1,83 @@
+package com.primed.sde.command;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test the packed change set, in memory and spilled to disk.
+ */
+public class ChangeSetTest {
+
+	private static final String BRANCH = "http://svn.example.com/repo/branches/release";
+
+	@Test
+	public void iteratesSortedWithPrefixRestored() throws IOException {
+		ChangeSet changes = new ChangeSet(BRANCH);
+		changes.add('M', BRANCH + "/web/index.jsp");
+		changes.add('A', BRANCH + "/src/Main.java");
+		changes.add('D', BRANCH + "/docs");
+		changes.add('A', "http://elsewhere/file.txt");
+
+		List<String> lines = new ArrayList<String>();
+		for (ChangeSet.Change change : changes) {
+			lines.add(change.toString());
+		}
+		changes.close();
+
+		Assert.assertEquals(4, lines.size());
+		Assert.assertEquals("D " + BRANCH + "/docs", lines.get(0));
+		Assert.assertEquals("A " + BRANCH + "/src/Main.java", lines.get(1));
+		Assert.assertEquals("M " + BRANCH + "/web/index.jsp", lines.get(2));
+		Assert.assertEquals("A http://elsewhere/file.txt", lines.get(3));
+	}
+
+	@Test
+	public void spillsToFile() throws IOException {
+		ChangeSet changes = new ChangeSet(BRANCH, 1024);
+		for (int i = 9999; i >= 0; i--) {
+			changes.add('A', BRANCH + "/dir/f" + String.format("%05d", i) + "-\u00e9.txt");
+		}
+		Assert.assertEquals(10000, changes.size());
+
+		int i = 0;
+		for (ChangeSet.Change change : changes) {
+			Assert.assertEquals('A', change.getOperation());
+			Assert.assertEquals("/dir/f" + String.format("%05d", i) + "-\u00e9.txt", change.getPath());
+			i++;
+		}
+		changes.add('M', BRANCH + "/a");
+		Assert.assertEquals("/a", changes.iterator().next().getPath());
+		changes.close();
+	}
+
+	@Test
+	public void spillLargerThanReadCache() throws IOException {
+		ChangeSet changes = new ChangeSet(BRANCH, 1024);
+		int entries = 100000;
+		for (int i = entries - 1; i >= 0; i--) {
+			changes.add(i % 10 == 0 ? 'D' : 'M', BRANCH + "/d" + (i % 7) + "/f" + String.format("%06d", i) + ".txt");
+		}
+		File spill = changes.getSpillFile();
+		Assert.assertTrue(spill.length() > 1024 * 1024);
+
+		int n = 0;
+		String last = "";
+		for (ChangeSet.Change change : changes) {
+			Assert.assertTrue(change.getPath(), change.getPath().compareTo(last) > 0);
+			int i = Integer.parseInt(change.getPath().substring(5, 11));
+			Assert.assertEquals(i % 10 == 0 ? 'D' : 'M', change.getOperation());
+			last = change.getPath();
+			n++;
+		}
+		Assert.assertEquals(entries, n);
+
+		changes.close();
+		Assert.assertFalse(spill.exists());
+	}
+}
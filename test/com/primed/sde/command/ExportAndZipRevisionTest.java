@@ -0,0 +1,185 @@
+package com.primed.sde.command;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
+import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
+import org.tmatesoft.svn.core.io.ISVNEditor;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+import org.tmatesoft.svn.core.io.diff.SVNDeltaGenerator;
+import org.tmatesoft.svn.core.wc.SVNWCUtil;
+
+/**
+ * Test export_zip against a local file:// repository.
+ */
+public class ExportAndZipRevisionTest {
+
+	@Test
+	public void rollingManifestIsNetOfLaterRevisions() throws Exception {
+		File work = File.createTempFile("sde-export-zip", "");
+		work.delete();
+		work.mkdirs();
+		ExportAndZipRevision.useTargetFolder(new File(work, "export"));
+
+		FSRepositoryFactory.setup();
+		SVNURL root = SVNRepositoryFactory.createLocalRepository(new File(work, "repo"), true, false);
+		SVNRepository repository = SVNRepositoryFactory.create(root);
+		try {
+			// r1: the baseline
+			ISVNEditor editor = repository.getCommitEditor("r1", null);
+			editor.openRoot(-1);
+			editor.addDir("trunk", null, -1);
+			addFile(editor, "trunk/a.txt", "a");
+			addFile(editor, "trunk/b.txt", "b");
+			editor.addDir("trunk/dir", null, -1);
+			addFile(editor, "trunk/dir/x.txt", "x");
+			editor.closeDir();
+			editor.closeDir();
+			editor.closeDir();
+			editor.closeEdit();
+
+			// r2: delete a.txt and dir
+			editor = repository.getCommitEditor("r2", null);
+			editor.openRoot(-1);
+			editor.openDir("trunk", -1);
+			editor.deleteEntry("trunk/a.txt", -1);
+			editor.deleteEntry("trunk/dir", -1);
+			editor.closeDir();
+			editor.closeDir();
+			editor.closeEdit();
+
+			// r3: a.txt and dir/x.txt come back, new.txt is added
+			editor = repository.getCommitEditor("r3", null);
+			editor.openRoot(-1);
+			editor.openDir("trunk", -1);
+			addFile(editor, "trunk/a.txt", "a again");
+			addFile(editor, "trunk/new.txt", "new");
+			editor.addDir("trunk/dir", null, -1);
+			addFile(editor, "trunk/dir/x.txt", "x again");
+			editor.closeDir();
+			editor.closeDir();
+			editor.closeDir();
+			editor.closeEdit();
+
+			// r4: new.txt and b.txt are deleted
+			editor = repository.getCommitEditor("r4", null);
+			editor.openRoot(-1);
+			editor.openDir("trunk", -1);
+			editor.deleteEntry("trunk/new.txt", -1);
+			editor.deleteEntry("trunk/b.txt", -1);
+			editor.closeDir();
+			editor.closeDir();
+			editor.closeEdit();
+		} finally {
+			repository.closeSession();
+		}
+
+		SVNURL trunk = root.appendPath("trunk", false);
+		ExportAndZipRevision last = null;
+		for (int rev = 2; rev <= 4; rev++) {
+			last = new ExportAndZipRevision(new BasicAuthenticationManager("robot", "robot"), SVNWCUtil.createDefaultOptions(true), trunk,
+					String.valueOf(rev), false, PathFilter.ALL, Zip.Format.STANDARD, ExportWorkers.SERIAL);
+			last.execute();
+		}
+
+		ZipFile zip = new ZipFile(last.getZipFile());
+		try {
+			Assert.assertNotNull(zip.getEntry("a.txt"));
+			Assert.assertNotNull(zip.getEntry("dir/x.txt"));
+			Assert.assertNull(zip.getEntry("new.txt"));
+			Assert.assertNull(zip.getEntry("b.txt"));
+			Assert.assertNull(zip.getEntry("deleted-4.txt"));
+			Assert.assertEquals("[b.txt, new.txt]", lines(zip, Export.DELETE_MANIFEST).toString());
+		} finally {
+			zip.close();
+		}
+
+		StagingManager.awaitPending();
+		StagingManager.delete(work);
+	}
+
+	@Test
+	public void replacedPathIsNotListed() throws Exception {
+		File work = File.createTempFile("sde-export-zips", "");
+		work.delete();
+		work.mkdirs();
+		ExportAndZipRevision.useTargetFolder(new File(work, "export"));
+
+		FSRepositoryFactory.setup();
+		SVNURL root = SVNRepositoryFactory.createLocalRepository(new File(work, "repo"), true, false);
+		SVNRepository repository = SVNRepositoryFactory.create(root);
+		try {
+			// r1: foo is a file
+			ISVNEditor editor = repository.getCommitEditor("r1", null);
+			editor.openRoot(-1);
+			editor.addDir("trunk", null, -1);
+			addFile(editor, "trunk/foo", "foo");
+			editor.closeDir();
+			editor.closeDir();
+			editor.closeEdit();
+
+			// r2: foo is replaced by a directory
+			editor = repository.getCommitEditor("r2", null);
+			editor.openRoot(-1);
+			editor.openDir("trunk", -1);
+			editor.deleteEntry("trunk/foo", -1);
+			editor.addDir("trunk/foo", null, -1);
+			addFile(editor, "trunk/foo/x.txt", "x");
+			editor.closeDir();
+			editor.closeDir();
+			editor.closeDir();
+			editor.closeEdit();
+		} finally {
+			repository.closeSession();
+		}
+
+		ExportAndZipRevision export = new ExportAndZipRevision(new BasicAuthenticationManager("robot", "robot"),
+				SVNWCUtil.createDefaultOptions(true), root.appendPath("trunk", false), "2", true, PathFilter.ALL, Zip.Format.STANDARD,
+				ExportWorkers.SERIAL);
+		export.execute();
+
+		ZipFile zip = new ZipFile(export.getZipFile());
+		try {
+			Assert.assertNotNull(zip.getEntry("foo/x.txt"));
+			Assert.assertNull(zip.getEntry("deleted-2.txt"));
+		} finally {
+			zip.close();
+		}
+
+		StagingManager.awaitPending();
+		StagingManager.delete(work);
+	}
+
+	private static void addFile(ISVNEditor editor, String path, String content) throws SVNException {
+		editor.addFile(path, null, -1);
+		editor.applyTextDelta(path, null);
+		String checksum = new SVNDeltaGenerator().sendDelta(path, new ByteArrayInputStream(content.getBytes()), editor, true);
+		editor.closeFile(path, checksum);
+	}
+
+	private static List<String> lines(ZipFile zip, String name) throws Exception {
+		ZipEntry entry = zip.getEntry(name);
+		Assert.assertNotNull(name, entry);
+		BufferedReader in = new BufferedReader(new InputStreamReader(zip.getInputStream(entry), "UTF-8"));
+		List<String> lines = new ArrayList<String>();
+		String line;
+		while ((line = in.readLine()) != null) {
+			lines.add(line);
+		}
+		in.close();
+		return lines;
+	}
+}
@@ -0,0 +1,56 @@
+package com.primed.sde.command;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test the directory planning of an export, without a repository.
+ */
+public class ExportPlannerTest {
+
+	private static final String BRANCH = "http://svn.example.com/repo/trunk";
+
+	@Test
+	public void createsTreeAndGroupsByDirectory() throws Exception {
+		File target = File.createTempFile("sde-plan", "");
+		target.delete();
+
+		ChangeSet changes = new ChangeSet(BRANCH);
+		changes.add('A', BRANCH + "/web/a+b(1).txt");
+		changes.add('M', BRANCH + "/web/css/site.css");
+		changes.add('M', BRANCH + "/web/z.txt");
+		changes.add('A', BRANCH + "/web/empty", true);
+		changes.add('A', BRANCH + "/deep/er/still/file%20name.txt");
+		changes.add('D', BRANCH + "/old/gone.txt");
+
+		ExportPlanner planner = new ExportPlanner(changes, target);
+		Assert.assertEquals(4, planner.createDirectories());
+		Assert.assertTrue(new File(target, "web/css").isDirectory());
+		Assert.assertTrue(new File(target, "web/empty").isDirectory());
+		Assert.assertTrue(new File(target, "deep/er/still").isDirectory());
+		Assert.assertFalse(new File(target, "old").exists());
+
+		final List<String> exported = new ArrayList<String>();
+		planner.execute(new ExportPlanner.FileExporter() {
+			public void export(ChangeSet.Change change, File file) throws IOException {
+				Assert.assertTrue(file.getParentFile().isDirectory());
+				exported.add(file.getName());
+			}
+		});
+		changes.close();
+
+		Assert.assertEquals(4, exported.size());
+		Assert.assertEquals("file name.txt", exported.get(0));
+		Assert.assertEquals("a+b(1).txt", exported.get(1));
+		Assert.assertEquals("z.txt", exported.get(2));
+		Assert.assertEquals("site.css", exported.get(3));
+
+		ExportAndZipRevision.deleteDirectory(target);
+	}
+}
@@ -0,0 +1,106 @@
+package com.primed.sde.command;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
+import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
+import org.tmatesoft.svn.core.io.ISVNEditor;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+import org.tmatesoft.svn.core.io.diff.SVNDeltaGenerator;
+import org.tmatesoft.svn.core.wc.SVNUpdateClient;
+import org.tmatesoft.svn.core.wc.SVNWCUtil;
+
+/**
+ * Test export of a diff.patch against a local file:// repository.
+ */
+public class ExportTest {
+
+	@Test
+	public void directoryRulesDropDirectoryEntries() throws Exception {
+		File work = File.createTempFile("sde-export", "");
+		work.delete();
+		work.mkdirs();
+
+		FSRepositoryFactory.setup();
+		SVNURL root = SVNRepositoryFactory.createLocalRepository(new File(work, "repo"), true, false);
+		SVNRepository repository = SVNRepositoryFactory.create(root);
+		try {
+			ISVNEditor editor = repository.getCommitEditor("branches", null);
+			editor.openRoot(-1);
+			editor.addDir("old", null, -1);
+			addFile(editor, "old/index.html", "old");
+			addFile(editor, "old/rm.txt", "rm");
+			editor.addDir("old/gone", null, -1);
+			addFile(editor, "old/gone/g.txt", "g");
+			editor.closeDir();
+			editor.addDir("old/stale", null, -1);
+			addFile(editor, "old/stale/s.txt", "s");
+			editor.closeDir();
+			editor.closeDir();
+			editor.addDir("new", null, -1);
+			addFile(editor, "new/index.html", "new");
+			editor.addDir("new/docs", null, -1);
+			addFile(editor, "new/docs/a.txt", "a");
+			editor.closeDir();
+			editor.closeDir();
+			editor.closeDir();
+			editor.closeEdit();
+		} finally {
+			repository.closeSession();
+		}
+
+		String oldBranch = root.appendPath("old", false).toString();
+		String newBranch = root.appendPath("new", false).toString();
+		File diff = new File(work, "diff.patch");
+		Writer out = new FileWriter(diff);
+		out.write("M " + oldBranch + "/index.html\n");
+		out.write("D " + oldBranch + "/gone\n");
+		out.write("D " + oldBranch + "/stale\n");
+		out.write("D " + oldBranch + "/rm.txt\n");
+		out.write("A " + oldBranch + "/docs\n");
+		out.write("A " + oldBranch + "/docs/a.txt\n");
+		out.close();
+
+		File target = new File(work, "export");
+		BasicAuthenticationManager auth = new BasicAuthenticationManager("robot", "robot");
+		new Export(new SVNUpdateClient(auth, SVNWCUtil.createDefaultOptions(true)), auth, diff, oldBranch, newBranch, target.getPath(),
+				PathFilter.parse(null, "gone/, docs/"), ExportWorkers.SERIAL).execute();
+
+		Assert.assertTrue(new File(target, "index.html").isFile());
+		Assert.assertFalse(new File(target, "docs").exists());
+		Assert.assertEquals("[rm.txt, stale/s.txt, stale/]", lines(new File(target, Export.DELETE_MANIFEST)).toString());
+
+		StagingManager.delete(work);
+	}
+
+	private static void addFile(ISVNEditor editor, String path, String content) throws SVNException {
+		editor.addFile(path, null, -1);
+		editor.applyTextDelta(path, null);
+		String checksum = new SVNDeltaGenerator().sendDelta(path, new ByteArrayInputStream(content.getBytes()), editor, true);
+		editor.closeFile(path, checksum);
+	}
+
+	private static List<String> lines(File file) throws Exception {
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		List<String> lines = new ArrayList<String>();
+		String line;
+		while ((line = in.readLine()) != null) {
+			lines.add(line);
+		}
+		in.close();
+		return lines;
+	}
+}
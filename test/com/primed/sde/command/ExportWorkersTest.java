@@ -0,0 +1,128 @@
+package com.primed.sde.command;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.tmatesoft.svn.core.auth.ISVNAuthenticationManager;
+import org.tmatesoft.svn.core.wc.SVNUpdateClient;
+import org.tmatesoft.svn.core.wc.SVNWCUtil;
+
+/**
+ * Test the concurrent fetch of the files of a plan.
+ */
+public class ExportWorkersTest {
+
+	private static final String BRANCH = "http://svn.example.com/repo/trunk";
+
+	@Test
+	public void capsFetchesInFlight() throws Exception {
+		File target = File.createTempFile("sde-workers", "");
+		target.delete();
+		ExportPlanner planner = plan(target, 200);
+
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger maxInFlight = new AtomicInteger();
+		final AtomicInteger done = new AtomicInteger();
+		ExportWorkers workers = new ExportWorkers(4, true);
+		workers.run(planner, new ExportPlanner.FileExporter() {
+			public void export(ChangeSet.Change change, File file) {
+				int now = inFlight.incrementAndGet();
+				synchronized (maxInFlight) {
+					maxInFlight.set(Math.max(maxInFlight.get(), now));
+				}
+				Thread.yield();
+				inFlight.decrementAndGet();
+				done.incrementAndGet();
+			}
+		});
+		workers.shutdown();
+
+		Assert.assertEquals(200, done.get());
+		Assert.assertTrue(maxInFlight.get() <= 4);
+		StagingManager.delete(target);
+	}
+
+	@Test
+	public void rethrowsFirstFailure() throws Exception {
+		File target = File.createTempFile("sde-workers", "");
+		target.delete();
+		ExportPlanner planner = plan(target, 50);
+
+		ExportWorkers workers = new ExportWorkers(3, false);
+		try {
+			workers.run(planner, new ExportPlanner.FileExporter() {
+				public void export(ChangeSet.Change change, File file) throws IOException {
+					if (file.getName().equals("f10.txt")) {
+						throw new IOException("fetch failed");
+					}
+				}
+			});
+			Assert.fail("expected the fetch failure");
+		} catch (IOException e) {
+			Assert.assertEquals("fetch failed", e.getMessage());
+		} finally {
+			workers.shutdown();
+		}
+		StagingManager.delete(target);
+	}
+
+	@Test
+	public void virtualThreadsOnlyWhenAskedAndAvailable() {
+		ExportWorkers platform = new ExportWorkers(4, false);
+		Assert.assertFalse(platform.isVirtual());
+		platform.shutdown();
+
+		// a single connection runs inline, no threads at all
+		ExportWorkers serial = new ExportWorkers(1, true);
+		Assert.assertFalse(serial.isVirtual());
+
+		ExportWorkers virtual = new ExportWorkers(4, true);
+		String spec = System.getProperty("java.specification.version");
+		int version = Integer.parseInt(spec.startsWith("1.") ? spec.substring(2) : spec);
+		if (version >= 21) {
+			Assert.assertTrue(virtual.isVirtual());
+		} else if (version < 19) {
+			Assert.assertFalse(virtual.isVirtual());
+		}
+		Assert.assertEquals(4, virtual.getConnections());
+		virtual.shutdown();
+	}
+
+	@Test
+	public void concurrentExportNeedsCredentials() throws Exception {
+		SVNUpdateClient client = new SVNUpdateClient((ISVNAuthenticationManager) null, SVNWCUtil.createDefaultOptions(true));
+		ExportWorkers workers = new ExportWorkers(2, false);
+		try {
+			new Export(client, null, new File("diff.patch"), BRANCH, BRANCH, "export", PathFilter.ALL, workers);
+			Assert.fail("expected the missing authentication manager to be rejected");
+		} catch (IllegalArgumentException e) {
+			// the extra connections would have used the default credentials
+		} finally {
+			workers.shutdown();
+		}
+		new Export(client, null, new File("diff.patch"), BRANCH, BRANCH, "export", PathFilter.ALL, ExportWorkers.SERIAL);
+
+		ExportWorkers.ClientPool pool = new ExportWorkers.ClientPool(client, null, client.getOptions());
+		Assert.assertSame(client, pool.borrow());
+		try {
+			pool.borrow();
+			Assert.fail("expected no second client without credentials");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	private static ExportPlanner plan(File target, int files) throws IOException {
+		ChangeSet changes = new ChangeSet(BRANCH);
+		for (int i = 0; i < files; i++) {
+			changes.add('A', BRANCH + "/d" + (i % 7) + "/f" + i + ".txt");
+		}
+		ExportPlanner planner = new ExportPlanner(changes, target);
+		planner.createDirectories();
+		return planner;
+	}
+}
@@ -0,0 +1,63 @@
+package com.primed.sde.command;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test the include/exclude glob rules.
+ */
+public class PathFilterTest {
+
+	@Test
+	public void excludes() {
+		PathFilter filter = PathFilter.parse(null, "test/, /docs/, *.psd, web/**/*.tmp");
+
+		Assert.assertTrue(filter.accept("/web/index.html", false));
+		Assert.assertFalse(filter.accept("/test", true));
+		Assert.assertFalse(filter.accept("/test/Foo.java", false));
+		Assert.assertFalse(filter.accept("/src/test/Foo.java", false));
+		Assert.assertTrue(filter.accept("/src/test", false));
+		Assert.assertFalse(filter.accept("/docs/readme.txt", false));
+		Assert.assertTrue(filter.accept("/web/docs/readme.txt", false));
+		Assert.assertFalse(filter.accept("/art/logo.psd", false));
+		Assert.assertTrue(filter.accept("/art/logo.psd.txt", false));
+		Assert.assertFalse(filter.accept("/web/a.tmp", false));
+		Assert.assertFalse(filter.accept("/web/a/b/c.tmp", false));
+		Assert.assertTrue(filter.accept("/a.tmp", false));
+	}
+
+	@Test
+	public void includes() {
+		PathFilter filter = PathFilter.parse("*.jsp,/WEB-INF/**", "*.bak");
+
+		Assert.assertTrue(filter.accept("/pages/a.jsp", false));
+		Assert.assertTrue(filter.accept("/WEB-INF/web.xml", false));
+		Assert.assertTrue(filter.accept("/pages", true));
+		Assert.assertFalse(filter.accept("/pages/a.html", false));
+		Assert.assertFalse(filter.accept("/WEB-INF/web.xml.bak", false));
+	}
+
+	@Test
+	public void unknownKind() {
+		PathFilter filter = PathFilter.parse(null, "gone/, *.psd");
+
+		Assert.assertTrue(filter.accept("/gone", false));
+		Assert.assertFalse(filter.acceptUnknownKind("/gone"));
+		Assert.assertFalse(filter.acceptUnknownKind("/gone/a.txt"));
+		Assert.assertFalse(filter.acceptUnknownKind("/art/logo.psd"));
+		Assert.assertTrue(filter.acceptUnknownKind("/web/index.html"));
+		Assert.assertTrue(PathFilter.ALL.acceptUnknownKind("/gone"));
+	}
+
+	@Test
+	public void literalCharacters() {
+		PathFilter filter = PathFilter.parse(null, "a+b(1).txt, ?.log");
+
+		Assert.assertFalse(filter.accept("dir/a+b(1).txt", false));
+		Assert.assertTrue(filter.accept("dir/aab(1).txt", false));
+		Assert.assertFalse(filter.accept("x.log", false));
+		Assert.assertTrue(filter.accept("xy.log", false));
+		Assert.assertTrue(PathFilter.ALL.acceptsAll());
+	}
+}
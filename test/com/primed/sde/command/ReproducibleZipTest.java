@@ -0,0 +1,134 @@
+package com.primed.sde.command;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test the reproducible and indexed zip formats.
+ */
+public class ReproducibleZipTest {
+
+	@Test
+	public void sameInputSameBytes() throws Exception {
+		File dir = createExport();
+		File first = zip(dir, "first.zip", Zip.Format.REPRODUCIBLE);
+		new File(dir, "web/index.html").setLastModified(System.currentTimeMillis() - 3600 * 1000);
+		File second = zip(dir, "second.zip", Zip.Format.REPRODUCIBLE);
+
+		Assert.assertTrue(Arrays.equals(read(first), read(second)));
+
+		ZipFile zip = new ZipFile(first);
+		Assert.assertEquals(3, zip.size());
+		Assert.assertEquals("hello hello hello hello hello", content(zip, "web/index.html"));
+		Assert.assertEquals("", content(zip, "empty.txt"));
+		zip.close();
+
+		StagingManager.delete(dir.getParentFile());
+	}
+
+	@Test
+	public void indexPointsAtEntryData() throws Exception {
+		File dir = createExport();
+		File indexed = zip(dir, "indexed.zip", Zip.Format.INDEXED);
+
+		ZipFile zip = new ZipFile(indexed);
+		Assert.assertEquals(4, zip.size());
+		BufferedReader index = new BufferedReader(new InputStreamReader(
+				zip.getInputStream(zip.getEntry(ReproducibleZip.INDEX_NAME)), "UTF-8"));
+		RandomAccessFile raw = new RandomAccessFile(indexed, "r");
+		String line;
+		int lines = 0;
+		while ((line = index.readLine()) != null) {
+			String[] fields = line.split(" ", 6);
+			long offset = Long.parseLong(fields[0]);
+			byte[] data = new byte[Integer.parseInt(fields[1])];
+			raw.seek(offset);
+			raw.readFully(data);
+			byte[] expected = content(zip, fields[5]).getBytes("UTF-8");
+			if (fields[4].equals("8")) {
+				Inflater inflater = new Inflater(true);
+				inflater.setInput(data);
+				byte[] inflated = new byte[Integer.parseInt(fields[2])];
+				inflater.inflate(inflated);
+				data = inflated;
+			}
+			Assert.assertTrue(fields[5], Arrays.equals(expected, data));
+			lines++;
+		}
+		raw.close();
+		zip.close();
+		Assert.assertEquals(3, lines);
+
+		StagingManager.delete(dir.getParentFile());
+	}
+
+	@Test
+	public void zip64WhenAnyFieldOverflows() {
+		long fourGb = 0x100000000L;
+		Assert.assertFalse(ReproducibleZip.requiresZip64(3, 1000, 1000));
+		Assert.assertFalse(ReproducibleZip.requiresZip64(0xFFFE, 0xFFFFFFFEL, 0xFFFFFFFEL));
+		// a 4GB file that deflates to 1MB leaves the offsets small
+		Assert.assertTrue(ReproducibleZip.requiresZip64(1, 1024 * 1024, fourGb));
+		Assert.assertTrue(ReproducibleZip.requiresZip64(1, 1000, 0xFFFFFFFFL));
+		Assert.assertTrue(ReproducibleZip.requiresZip64(0xFFFF, 1000, 1000));
+		Assert.assertTrue(ReproducibleZip.requiresZip64(3, fourGb, 1000));
+	}
+
+	private static File createExport() throws IOException {
+		File parent = File.createTempFile("sde-zip", "");
+		parent.delete();
+		File dir = new File(parent, "export");
+		new File(dir, "web/css").mkdirs();
+		write(new File(dir, "web/index.html"), "hello hello hello hello hello");
+		write(new File(dir, "web/css/site.css"), "body { color: #000 }");
+		write(new File(dir, "empty.txt"), "");
+		return dir;
+	}
+
+	private static File zip(File dir, String name, Zip.Format format) throws IOException {
+		new Zip(dir, name, PathFilter.ALL, format).execute();
+		return new File(dir.getParentFile(), name);
+	}
+
+	private static void write(File file, String content) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(content.getBytes("UTF-8"));
+		out.close();
+	}
+
+	private static byte[] read(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		byte[] bytes = new byte[(int) in.length()];
+		in.readFully(bytes);
+		in.close();
+		return bytes;
+	}
+
+	private static String content(ZipFile zip, String name) throws IOException {
+		ZipEntry entry = zip.getEntry(name);
+		Assert.assertNotNull(name, entry);
+		InputStream in = zip.getInputStream(entry);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toString("UTF-8");
+	}
+}
@@ -0,0 +1,68 @@
+package com.primed.sde.command;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test the staging folder cleanup.
+ */
+public class StagingManagerTest {
+
+	@Test
+	public void cleanMovesAsideAndDeletesInBackground() throws Exception {
+		File parent = File.createTempFile("sde-staging", "");
+		parent.delete();
+		File folder = new File(parent, "export");
+		for (int d = 0; d < 20; d++) {
+			File dir = new File(folder, "d" + d + "/sub");
+			dir.mkdirs();
+			for (int f = 0; f < 50; f++) {
+				touch(new File(dir, "f" + f + ".txt"));
+			}
+		}
+
+		new StagingManager(folder).clean();
+		Assert.assertFalse(folder.exists());
+
+		StagingManager.awaitPending();
+		Assert.assertEquals(0, parent.list().length);
+		Assert.assertTrue(StagingManager.delete(parent));
+	}
+
+	@Test
+	public void finishedDeletesAreForgotten() throws Exception {
+		File parent = File.createTempFile("sde-staging", "");
+		parent.delete();
+		File folder = new File(parent, "export");
+		StagingManager staging = new StagingManager(folder);
+		for (int i = 0; i < 50; i++) {
+			folder.mkdirs();
+			touch(new File(folder, "f.txt"));
+			staging.clean();
+			// like watch: never calls awaitPending, the previous delete is simply over by the next clean
+			while (parent.list().length > 0) {
+				Thread.sleep(1);
+			}
+		}
+		Assert.assertTrue(StagingManager.pendingCount() <= 2);
+
+		StagingManager.awaitPending();
+		Assert.assertTrue(StagingManager.delete(parent));
+	}
+
+	@Test
+	public void deleteMissingPath() {
+		Assert.assertTrue(StagingManager.delete(new File("does-not-exist-" + System.nanoTime())));
+	}
+
+	private static void touch(File file) throws IOException {
+		FileWriter out = new FileWriter(file);
+		out.write("x");
+		out.close();
+	}
+}
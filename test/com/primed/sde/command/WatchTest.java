@@ -0,0 +1,181 @@
+package com.primed.sde.command;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
+import org.tmatesoft.svn.core.wc.SVNWCUtil;
+
+import com.primed.sde.perf.SyntheticRepository;
+
+/**
+ * Test watch against a local file:// repository.
+ */
+public class WatchTest {
+
+	/**
+	 * r1 creates /trunk and /tags, r2-r3 change trunk, r4 tags trunk, r5-r6
+	 * change trunk again.
+	 */
+	private static final int REVISIONS = 4;
+
+	@Test
+	public void packagesOnlyRevisionsOnTheBranch() throws Exception {
+		File work = createWork();
+		SVNURL trunk = createRepository(work);
+		File state = new File(work, "watch.state");
+		writeState(state, 1);
+
+		watch(trunk, state, false);
+		Assert.assertEquals("[export-2.zip, export-3.zip, export-5.zip, export-6.zip]", Arrays.toString(zips(work)));
+		Assert.assertEquals(6, readState(state));
+
+		for (String zip : zips(work)) {
+			new File(work, zip).delete();
+		}
+		watch(trunk, state, false);
+		Assert.assertEquals(0, zips(work).length);
+		Assert.assertEquals(6, readState(state));
+
+		StagingManager.awaitPending();
+		StagingManager.delete(work);
+	}
+
+	@Test
+	public void rollingZipKeepsOneName() throws Exception {
+		File work = createWork();
+		SVNURL trunk = createRepository(work);
+		File state = new File(work, "watch.state");
+		writeState(state, 4);
+
+		watch(trunk, state, true);
+		Assert.assertEquals("[" + Watch.ROLLING_ZIP + "]", Arrays.toString(zips(work)));
+		Assert.assertEquals(6, readState(state));
+
+		StagingManager.awaitPending();
+		StagingManager.delete(work);
+	}
+
+	@Test
+	public void keepsPollingAfterIOException() throws Exception {
+		File work = createWork();
+		final SVNURL trunk = createRepository(work);
+		final File state = new File(work, "watch.state");
+		writeState(state, 4);
+		// a directory where the state is written first makes every save fail
+		File blocker = new File(work, "watch.state.tmp");
+		blocker.mkdir();
+
+		final Exception[] failure = new Exception[1];
+		Thread watch = new Thread() {
+			public void run() {
+				try {
+					new Watch(new BasicAuthenticationManager("robot", "robot"), SVNWCUtil.createDefaultOptions(true), trunk, state, 1,
+							false, PathFilter.ALL, Zip.Format.STANDARD, ExportWorkers.SERIAL).execute();
+				} catch (InterruptedException e) {
+					// stopped by the test
+				} catch (Exception e) {
+					failure[0] = e;
+				}
+			}
+		};
+		watch.start();
+		long deadline = System.currentTimeMillis() + 30000;
+		while (!new File(work, "export-5.zip").exists() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		Assert.assertTrue(watch.isAlive());
+		Assert.assertEquals(4, readState(state));
+
+		blocker.delete();
+		while (readState(state) != 6 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		watch.interrupt();
+		watch.join();
+		Assert.assertNull(failure[0]);
+		Assert.assertEquals(6, readState(state));
+
+		StagingManager.awaitPending();
+		StagingManager.delete(work);
+	}
+
+	@Test
+	public void refusesStateOfAnotherBranch() throws Exception {
+		File work = createWork();
+		SVNURL trunk = createRepository(work);
+		File state = new File(work, "watch.state");
+		Properties other = new Properties();
+		other.setProperty("last-revision", "1");
+		other.setProperty("branch", trunk.removePathTail().appendPath("tags/base", false).toString());
+		OutputStream out = new FileOutputStream(state);
+		other.store(out, null);
+		out.close();
+
+		try {
+			watch(trunk, state, false);
+			Assert.fail("expected the state of another branch to be refused");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains("tags/base"));
+		}
+		Assert.assertEquals(0, zips(work).length);
+		Assert.assertEquals(1, readState(state));
+
+		StagingManager.delete(work);
+	}
+
+	private static File createWork() throws IOException {
+		File work = File.createTempFile("sde-watch", "");
+		work.delete();
+		work.mkdirs();
+		ExportAndZipRevision.useTargetFolder(new File(work, "export"));
+		return work;
+	}
+
+	private static SVNURL createRepository(File work) throws Exception {
+		SyntheticRepository repository = new SyntheticRepository(new File(work, "repo"), REVISIONS, 10, 2, 2, "1k", 3);
+		return repository.generate().appendPath("trunk", false);
+	}
+
+	private static void watch(SVNURL branch, File state, boolean rolling) throws Exception {
+		new Watch(new BasicAuthenticationManager("robot", "robot"), SVNWCUtil.createDefaultOptions(true), branch, state, 0, rolling,
+				PathFilter.ALL, Zip.Format.STANDARD, ExportWorkers.SERIAL).execute();
+	}
+
+	private static String[] zips(File work) {
+		String[] zips = work.list(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".zip");
+			}
+		});
+		Arrays.sort(zips);
+		return zips;
+	}
+
+	private static void writeState(File file, long revision) throws IOException {
+		Properties state = new Properties();
+		state.setProperty("last-revision", String.valueOf(revision));
+		OutputStream out = new FileOutputStream(file);
+		state.store(out, null);
+		out.close();
+	}
+
+	private static long readState(File file) throws IOException {
+		Properties state = new Properties();
+		InputStream in = new FileInputStream(file);
+		state.load(in);
+		in.close();
+		return Long.parseLong(state.getProperty("last-revision"));
+	}
+}
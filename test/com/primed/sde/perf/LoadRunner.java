@@ -0,0 +1,352 @@
+package com.primed.sde.perf;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.tmatesoft.svn.core.SVNURL;
+
+import com.primed.sde.SvnDiffExport;
+import com.primed.sde.command.StagingManager;
+
+/**
+ * Load test of the tool against a local file:// repository, so runs are
+ * repeatable without a server or network. A {@link SyntheticRepository} of the
+ * requested shape is generated, then each command is timed end to end:
+ *
+ * <pre>
+ * diff        -1 tags/base -2 trunk
+ * export      the files of that diff
+ * export_zip  every trunk revision after the tag
+ * zip         the export of the diff
+ * </pre>
+ *
+ * Each command runs as its own JVM, the way it is used from build scripts, so
+ * the times include startup and the relative paths (export_zip always works in
+ * ./export) stay inside the work directory. Anything after the options is
+ * passed on to every command, e.g. "-c 8 -z indexed".
+ *
+ * One CSV row per command and iteration is appended to the results file, with
+ * the Java version and repository shape, so runs can be compared across
+ * releases and settings.
+ */
+public class LoadRunner {
+
+	private static final String CSV_HEADER = "timestamp,java,shape,args,command,iteration,millis,units,unit,bytes,units_per_s,mb_per_s";
+
+	private final File work;
+	private final SyntheticRepository repository;
+	private final String shape;
+	private final List<String> toolArgs;
+	private final File results;
+	private final Map<String, List<Result>> byCommand = new LinkedHashMap<String, List<Result>>();
+	private SVNURL root;
+
+	public LoadRunner(File work, SyntheticRepository repository, String shape, List<String> toolArgs, File results) {
+		this.work = work;
+		this.repository = repository;
+		this.shape = shape;
+		this.toolArgs = toolArgs;
+		this.results = results;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options = new Options();
+		options.addOption("r", "revisions", true, "commits on trunk (default 50)");
+		options.addOption("n", "files", true, "files touched per commit (default 200)");
+		options.addOption("s", "sizes", true, "size buckets and weights (default 1k:60,16k:30,256k:9,4m:1)");
+		options.addOption("D", "depth", true, "directory depth (default 5)");
+		options.addOption("F", "fanout", true, "subdirectories per directory (default 4)");
+		options.addOption("S", "seed", true, "random seed (default 1)");
+		options.addOption("i", "iterations", true, "runs of each command (default 3)");
+		options.addOption("w", "work", true, "work directory, emptied first (default loadtest)");
+		options.addOption("o", "results", true, "CSV file the results are appended to (default loadtest-results.csv)");
+		options.addOption("h", "help", false, "this help");
+		CommandLine cmd = new GnuParser().parse(options, args, true);
+		if (cmd.hasOption("h")) {
+			new HelpFormatter().printHelp("LoadRunner <options> [tool options...]", options);
+			return;
+		}
+
+		int revisions = Integer.parseInt(cmd.getOptionValue("r", "50"));
+		int files = Integer.parseInt(cmd.getOptionValue("n", "200"));
+		String sizes = cmd.getOptionValue("s", "1k:60,16k:30,256k:9,4m:1");
+		int depth = Integer.parseInt(cmd.getOptionValue("D", "5"));
+		int fanout = Integer.parseInt(cmd.getOptionValue("F", "4"));
+		long seed = Long.parseLong(cmd.getOptionValue("S", "1"));
+		int iterations = Integer.parseInt(cmd.getOptionValue("i", "3"));
+		File work = new File(cmd.getOptionValue("w", "loadtest")).getAbsoluteFile();
+		File results = new File(cmd.getOptionValue("o", "loadtest-results.csv")).getAbsoluteFile();
+
+		String shape = "r" + revisions + " n" + files + " s" + sizes.replace(',', ' ') + " D" + depth + " F" + fanout + " S" + seed;
+		StagingManager.delete(work);
+		work.mkdirs();
+		SyntheticRepository repository = new SyntheticRepository(new File(work, "repo"), revisions, files, depth, fanout, sizes, seed);
+		LoadRunner test = new LoadRunner(work, repository, shape, Arrays.asList(cmd.getArgs()), results);
+		test.generate();
+		test.run(iterations);
+		test.printSummary();
+	}
+
+	/**
+	 * Creates the repository.
+	 *
+	 * @throws Exception
+	 */
+	public void generate() throws Exception {
+		long start = System.currentTimeMillis();
+		root = repository.generate();
+		long millis = System.currentTimeMillis() - start;
+		System.out.println("generated " + root + ": r" + repository.getHeadRevision() + ", base r" + repository.getBaseRevision()
+				+ ", " + repository.getFileCount() + " files, " + mb(repository.getBytesCommitted()) + " MB committed in " + millis + " ms");
+	}
+
+	/**
+	 * Times every command the given number of times.
+	 *
+	 * @param iterations
+	 * @throws Exception
+	 */
+	public void run(int iterations) throws Exception {
+		String base = root.appendPath("tags/base", false).toString();
+		String trunk = root.appendPath("trunk", false).toString();
+		File patch = new File(work, "diff.patch");
+		File exported = new File(work, "export-out");
+		String range = (repository.getBaseRevision() + 1) + "-" + repository.getHeadRevision();
+
+		for (int i = 1; i <= iterations; i++) {
+			patch.delete();
+			long millis = tool("diff", "diff", "-1", base, "-2", trunk, "-o", patch.getPath());
+			record("diff", i, millis, lines(patch), "changes", 0);
+
+			StagingManager.delete(exported);
+			millis = tool("export", "export", "-i", patch.getPath(), "-1", base, "-2", trunk, "-o", exported.getPath());
+			long[] tree = measure(exported);
+			record("export", i, millis, tree[0], "files", tree[1]);
+
+			StagingManager.delete(new File(work, "export"));
+			deleteZips("export-");
+			millis = tool("export_zip", "export_zip", "-u", trunk, range);
+			record("export_zip", i, millis, repository.getHeadRevision() - repository.getBaseRevision(), "revisions", zipBytes("export-"));
+
+			deleteZips(exported.getName());
+			millis = tool("zip", "zip", "-o", exported.getPath());
+			record("zip", i, millis, tree[0], "files", tree[1]);
+		}
+	}
+
+	/**
+	 * Prints min / median / max per command.
+	 */
+	public void printSummary() {
+		System.out.println();
+		System.out.println(String.format(Locale.US, "%-12s %10s %10s %10s %12s %10s", "command", "min ms", "median ms", "max ms", "units/s", "MB/s"));
+		for (Map.Entry<String, List<Result>> entry : byCommand.entrySet()) {
+			List<Result> list = new ArrayList<Result>(entry.getValue());
+			Collections.sort(list);
+			Result median = list.get(list.size() / 2);
+			System.out.println(String.format(Locale.US, "%-12s %10d %10d %10d %12.1f %10.2f", entry.getKey(),
+					list.get(0).millis, median.millis, list.get(list.size() - 1).millis, median.unitsPerSecond(), median.mbPerSecond()));
+		}
+		System.out.println("results appended to " + results);
+	}
+
+	public Map<String, List<Result>> getResults() {
+		return byCommand;
+	}
+
+	/**
+	 * Runs the tool in a new JVM in the work directory.
+	 *
+	 * @return the wall clock time in ms
+	 */
+	private long tool(String log, String... args) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<String>();
+		command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+		command.add("-cp");
+		command.add(absoluteClassPath());
+		command.add(SvnDiffExport.class.getName());
+		command.addAll(Arrays.asList(args));
+		command.add("-q");
+		command.addAll(toolArgs);
+
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.directory(work);
+		builder.redirectErrorStream(true);
+		File logFile = new File(work, log + ".log");
+		builder.redirectOutput(logFile);
+		long start = System.nanoTime();
+		int exit = builder.start().waitFor();
+		long millis = (System.nanoTime() - start) / 1000000;
+		if (exit != 0) {
+			throw new IllegalStateException(log + " exited with " + exit + ", see " + logFile);
+		}
+		return millis;
+	}
+
+	/**
+	 * The class path of this JVM, resolved against its working directory
+	 * rather than the work directory the tool runs in.
+	 */
+	private static String absoluteClassPath() {
+		StringBuilder sb = new StringBuilder();
+		for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+			if (sb.length() > 0) {
+				sb.append(File.pathSeparatorChar);
+			}
+			if (entry.endsWith("*")) {
+				sb.append(new File(entry.substring(0, entry.length() - 1)).getAbsolutePath()).append(File.separatorChar).append('*');
+			} else {
+				sb.append(new File(entry).getAbsolutePath());
+			}
+		}
+		return sb.toString();
+	}
+
+	private void record(String command, int iteration, long millis, long units, String unit, long bytes) throws IOException {
+		Result result = new Result(millis, units, bytes);
+		List<Result> list = byCommand.get(command);
+		if (list == null) {
+			list = new ArrayList<Result>();
+			byCommand.put(command, list);
+		}
+		list.add(result);
+
+		boolean header = !results.exists() || results.length() == 0;
+		PrintWriter out = new PrintWriter(new FileWriter(results, true));
+		try {
+			if (header) {
+				out.println(CSV_HEADER);
+			}
+			out.println(String.format(Locale.US, "%s,%s,\"%s\",\"%s\",%s,%d,%d,%d,%s,%d,%.1f,%.2f",
+					new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date()), System.getProperty("java.version"),
+					shape, join(toolArgs), command, iteration, millis, units, unit, bytes,
+					result.unitsPerSecond(), result.mbPerSecond()));
+		} finally {
+			out.close();
+		}
+		System.out.println(command + " #" + iteration + ": " + millis + " ms, " + units + " " + unit
+				+ (bytes > 0 ? ", " + mb(bytes) + " MB" : ""));
+	}
+
+	private void deleteZips(String prefix) {
+		for (File file : zips(prefix)) {
+			file.delete();
+		}
+	}
+
+	private long zipBytes(String prefix) {
+		long bytes = 0;
+		for (File file : zips(prefix)) {
+			bytes += file.length();
+		}
+		return bytes;
+	}
+
+	private List<File> zips(String prefix) {
+		List<File> zips = new ArrayList<File>();
+		File[] files = work.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().startsWith(prefix) && file.getName().endsWith(".zip")) {
+					zips.add(file);
+				}
+			}
+		}
+		return zips;
+	}
+
+	/**
+	 * @return files and bytes below dir
+	 */
+	private static long[] measure(File dir) {
+		long[] total = new long[2];
+		File[] children = dir.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				if (child.isDirectory()) {
+					long[] sub = measure(child);
+					total[0] += sub[0];
+					total[1] += sub[1];
+				} else {
+					total[0]++;
+					total[1] += child.length();
+				}
+			}
+		}
+		return total;
+	}
+
+	static long lines(File file) throws IOException {
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			long lines = 0;
+			while (in.readLine() != null) {
+				lines++;
+			}
+			return lines;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static String join(List<String> args) {
+		StringBuilder sb = new StringBuilder();
+		for (String arg : args) {
+			sb.append(sb.length() > 0 ? " " : "").append(arg);
+		}
+		return sb.toString();
+	}
+
+	private static String mb(long bytes) {
+		return String.format(Locale.US, "%.2f", bytes / (1024.0 * 1024.0));
+	}
+
+	/**
+	 * One timed run of a command.
+	 */
+	public static class Result implements Comparable<Result> {
+
+		final long millis;
+		final long units;
+		final long bytes;
+
+		Result(long millis, long units, long bytes) {
+			this.millis = millis;
+			this.units = units;
+			this.bytes = bytes;
+		}
+
+		public long getUnits() {
+			return units;
+		}
+
+		double unitsPerSecond() {
+			return units * 1000.0 / Math.max(1, millis);
+		}
+
+		double mbPerSecond() {
+			return bytes / (1024.0 * 1024.0) * 1000.0 / Math.max(1, millis);
+		}
+
+		public int compareTo(Result other) {
+			return millis < other.millis ? -1 : millis == other.millis ? 0 : 1;
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package com.primed.sde.perf;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.primed.sde.command.StagingManager;
+
+/**
+ * Test the load test harness end to end on a tiny repository.
+ */
+public class LoadRunnerTest {
+
+	/**
+	 * A tiny repository through every command once, to keep the harness working.
+	 */
+	@Test
+	public void runsEveryCommand() throws Exception {
+		File work = File.createTempFile("sde-load", "");
+		work.delete();
+		work.mkdirs();
+		File results = new File(work, "results.csv");
+		SyntheticRepository repository = new SyntheticRepository(new File(work, "repo"), 4, 20, 2, 2, "1k:3,8k:1", 7);
+		LoadRunner test = new LoadRunner(work, repository, "smoke", Collections.<String> emptyList(), results);
+		test.generate();
+		test.run(1);
+
+		Assert.assertEquals(Arrays.asList("diff", "export", "export_zip", "zip"), new ArrayList<String>(test.getResults().keySet()));
+		Assert.assertTrue(test.getResults().get("diff").get(0).getUnits() > 0);
+		Assert.assertTrue(test.getResults().get("export").get(0).getUnits() > 0);
+		Assert.assertTrue(new File(work, "export-out.zip").length() > 0);
+		Assert.assertEquals(5, LoadRunner.lines(results));
+		StagingManager.delete(work);
+	}
+}
@@ -0,0 +1,280 @@
+package com.primed.sde.perf;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
+import org.tmatesoft.svn.core.io.ISVNEditor;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+import org.tmatesoft.svn.core.io.diff.SVNDeltaGenerator;
+
+/**
+ * Generates a local FSFS repository of a given shape for load testing, entirely
+ * from a seed so the same arguments always give the same repository:
+ *
+ * <pre>
+ * r1            /trunk and /tags
+ * r2 ..         one commit per revision on /trunk, each touching filesPerCommit
+ *               files: 60% added, 35% modified, 5% deleted
+ * (halfway)     /tags/base copied from /trunk
+ * </pre>
+ *
+ * Files are spread over a directory tree of the given depth and fan-out. Sizes
+ * follow a weighted distribution such as "1k:60,16k:30,1m:10": 60% of the files
+ * up to 1KB, 30% up to 16KB and so on, each between half its bucket and the
+ * bucket. The content is random words, so it compresses like source text.
+ */
+public class SyntheticRepository {
+
+	private static final String[] EXTENSIONS = { ".java", ".jsp", ".html", ".css", ".js", ".xml", ".txt", ".properties" };
+
+	private final File dir;
+	private final int revisions;
+	private final int filesPerCommit;
+	private final int depth;
+	private final int fanout;
+	private final long[] bucketSizes;
+	private final int[] bucketWeights;
+	private final Random random;
+
+	private final Set<String> dirs = new HashSet<String>();
+	private final List<String> files = new ArrayList<String>();
+	private int nextFile;
+	private long bytesCommitted;
+	private long baseRevision;
+	private long headRevision;
+
+	/**
+	 * @param dir where to create the repository, must not exist
+	 * @param revisions number of commits on trunk
+	 * @param filesPerCommit files touched by each commit
+	 * @param depth maximum directory depth below trunk
+	 * @param fanout subdirectories per directory
+	 * @param sizes weighted size buckets, e.g. "1k:60,16k:30,1m:10"
+	 * @param seed
+	 */
+	public SyntheticRepository(File dir, int revisions, int filesPerCommit, int depth, int fanout, String sizes, long seed) {
+		this.dir = dir;
+		this.revisions = revisions;
+		this.filesPerCommit = filesPerCommit;
+		this.depth = depth;
+		this.fanout = fanout;
+		this.random = new Random(seed);
+
+		String[] buckets = sizes.split(",");
+		this.bucketSizes = new long[buckets.length];
+		this.bucketWeights = new int[buckets.length];
+		for (int i = 0; i < buckets.length; i++) {
+			String[] parts = buckets[i].trim().split(":");
+			bucketSizes[i] = parseSize(parts[0]);
+			bucketWeights[i] = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+		}
+	}
+
+	/**
+	 * Creates the repository and all its commits.
+	 *
+	 * @return the repository root URL
+	 * @throws SVNException
+	 */
+	public SVNURL generate() throws SVNException {
+		FSRepositoryFactory.setup();
+		SVNURL root = SVNRepositoryFactory.createLocalRepository(dir, true, false);
+		SVNRepository repository = SVNRepositoryFactory.create(root);
+		try {
+			ISVNEditor editor = repository.getCommitEditor("layout", null);
+			editor.openRoot(-1);
+			editor.addDir("trunk", null, -1);
+			editor.closeDir();
+			editor.addDir("tags", null, -1);
+			editor.closeDir();
+			editor.closeDir();
+			headRevision = editor.closeEdit().getNewRevision();
+			dirs.add("trunk");
+
+			for (int r = 0; r < revisions; r++) {
+				commit(repository, "change " + (r + 1));
+				if (r == revisions / 2 - 1 || (revisions == 1 && r == 0)) {
+					editor = repository.getCommitEditor("tag base", null);
+					editor.openRoot(-1);
+					editor.openDir("tags", -1);
+					editor.addDir("tags/base", "/trunk", headRevision);
+					editor.closeDir();
+					editor.closeDir();
+					editor.closeDir();
+					headRevision = editor.closeEdit().getNewRevision();
+					baseRevision = headRevision;
+				}
+			}
+		} finally {
+			repository.closeSession();
+		}
+		return root;
+	}
+
+	/**
+	 * @return the revision that created /tags/base
+	 */
+	public long getBaseRevision() {
+		return baseRevision;
+	}
+
+	public long getHeadRevision() {
+		return headRevision;
+	}
+
+	/**
+	 * @return files on trunk at HEAD
+	 */
+	public int getFileCount() {
+		return files.size();
+	}
+
+	/**
+	 * @return the size of all file versions committed
+	 */
+	public long getBytesCommitted() {
+		return bytesCommitted;
+	}
+
+	private void commit(SVNRepository repository, String message) throws SVNException {
+		// path -> new content, or null to delete; sorted, so each directory is visited once
+		Map<String, byte[]> changes = new TreeMap<String, byte[]>();
+		Set<String> added = new HashSet<String>();
+		for (int i = 0; i < filesPerCommit; i++) {
+			int pick = random.nextInt(100);
+			if (pick < 60 || files.size() < 10) {
+				String path = newPath();
+				changes.put(path, content());
+				added.add(path);
+			} else if (pick < 95) {
+				String path = files.get(random.nextInt(files.size()));
+				if (!added.contains(path)) {
+					changes.put(path, content());
+				}
+			} else {
+				int index = random.nextInt(files.size());
+				String path = files.get(index);
+				if (!added.contains(path) && !changes.containsKey(path)) {
+					files.set(index, files.get(files.size() - 1));
+					files.remove(files.size() - 1);
+					changes.put(path, null);
+				}
+			}
+		}
+
+		ISVNEditor editor = repository.getCommitEditor(message, null);
+		SVNDeltaGenerator deltas = new SVNDeltaGenerator();
+		Deque<String> open = new ArrayDeque<String>();
+		editor.openRoot(-1);
+		open.push("");
+		for (Map.Entry<String, byte[]> change : changes.entrySet()) {
+			String path = change.getKey();
+			String parent = path.substring(0, path.lastIndexOf('/'));
+			while (!isSelfOrAncestor(open.peek(), parent)) {
+				editor.closeDir();
+				open.pop();
+			}
+			while (!open.peek().equals(parent)) {
+				String current = open.peek();
+				int next = parent.indexOf('/', current.length() + 1);
+				String child = next < 0 ? parent : parent.substring(0, next);
+				if (dirs.add(child)) {
+					editor.addDir(child, null, -1);
+				} else {
+					editor.openDir(child, -1);
+				}
+				open.push(child);
+			}
+
+			byte[] content = change.getValue();
+			if (content == null) {
+				editor.deleteEntry(path, -1);
+				continue;
+			}
+			if (added.contains(path)) {
+				editor.addFile(path, null, -1);
+			} else {
+				editor.openFile(path, -1);
+			}
+			editor.applyTextDelta(path, null);
+			String checksum = deltas.sendDelta(path, new ByteArrayInputStream(content), editor, true);
+			editor.closeFile(path, checksum);
+			bytesCommitted += content.length;
+		}
+		while (!open.isEmpty()) {
+			editor.closeDir();
+			open.pop();
+		}
+		headRevision = editor.closeEdit().getNewRevision();
+	}
+
+	private static boolean isSelfOrAncestor(String dir, String path) {
+		return dir.length() == 0 || path.equals(dir) || path.startsWith(dir + "/");
+	}
+
+	private String newPath() {
+		StringBuilder path = new StringBuilder("trunk");
+		int levels = random.nextInt(depth + 1);
+		for (int i = 0; i < levels; i++) {
+			path.append("/d").append(random.nextInt(fanout));
+		}
+		int n = nextFile++;
+		path.append("/f").append(n).append(EXTENSIONS[n % EXTENSIONS.length]);
+		files.add(path.toString());
+		return path.toString();
+	}
+
+	private byte[] content() {
+		int total = 0;
+		for (int weight : bucketWeights) {
+			total += weight;
+		}
+		int pick = random.nextInt(total);
+		int bucket = 0;
+		while (pick >= bucketWeights[bucket]) {
+			pick -= bucketWeights[bucket++];
+		}
+		long max = bucketSizes[bucket];
+		int size = (int) (max / 2 + (long) (random.nextDouble() * (max - max / 2)));
+
+		byte[] content = new byte[size];
+		int word = 0;
+		for (int i = 0; i < size; i++) {
+			if (word == 0) {
+				word = 2 + random.nextInt(9);
+				content[i] = (byte) (i % 80 < 70 ? ' ' : '\n');
+			} else {
+				content[i] = (byte) ('a' + random.nextInt(26));
+				word--;
+			}
+		}
+		return content;
+	}
+
+	static long parseSize(String size) {
+		String s = size.trim().toLowerCase();
+		long unit = 1;
+		if (s.endsWith("k")) {
+			unit = 1024;
+		} else if (s.endsWith("m")) {
+			unit = 1024 * 1024;
+		}
+		if (unit > 1) {
+			s = s.substring(0, s.length() - 1);
+		}
+		return Long.parseLong(s) * unit;
+	}
+}